@@ -0,0 +1,37 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.api;
+
+import java.util.concurrent.Callable;
+
+import be.nabu.glue.utils.ScriptRuntime;
+
+/**
+ * A lazy calculation that runs in a fork of the runtime it was created in.
+ * When a lot of them are calculated together, they can share a single fork instead of each creating their own.
+ */
+public interface ForkedCallable<T> extends Callable<T> {
+	/**
+	 * The runtime that should be forked
+	 */
+	public ScriptRuntime getRuntime();
+	/**
+	 * Calculates the result in the given fork
+	 */
+	public T call(ScriptRuntime fork) throws Exception;
+}
@@ -0,0 +1,156 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+import be.nabu.glue.core.api.ForkedCallable;
+import be.nabu.glue.utils.ScriptRuntime;
+
+/**
+ * Calculates lazy elements of a series in parallel, grouped in chunks so the scheduling overhead does not outweigh the actual work.
+ * The first element is calculated directly to measure how expensive an element is, the size of the next chunks is based on that cost and is refined by every chunk that finishes.
+ * Each chunk runs in a single fork of the runtime and the results end up at the position of the original element.
+ */
+public class ChunkedResolver {
+
+	// the amount of work we want in a single chunk, in nanoseconds
+	private static final long CHUNK_TIME = Long.parseLong(System.getProperty("glue.parallel.chunkTime", "1000000"));
+	private static final int MAX_CHUNK_SIZE = Integer.parseInt(System.getProperty("glue.parallel.maxChunkSize", "1024"));
+
+	private List<Object> results;
+	private ScriptRuntime runtime;
+	private List<Chunk> chunks = new ArrayList<Chunk>();
+	private Chunk current;
+	// the average time per element in nanoseconds, updated by the chunks as they finish
+	private volatile long cost = -1;
+
+	/**
+	 * The elements are added to the given list, the lazy ones are only filled in when finished
+	 */
+	public ChunkedResolver(List<Object> results) {
+		this.results = results;
+		this.runtime = ScriptRuntime.getRuntime();
+	}
+
+	@SuppressWarnings("rawtypes")
+	public void add(Callable callable) {
+		if (cost < 0) {
+			long started = System.nanoTime();
+			try {
+				results.add(callable.call());
+			}
+			catch (Exception e) {
+				throw new RuntimeException("An error occurred when executing the task", e);
+			}
+			cost = System.nanoTime() - started;
+			return;
+		}
+		if (current == null) {
+			current = new Chunk(runtime.fork(true));
+		}
+		// plain elements can be added to the list in between, so a chunk remembers the position of each of its elements
+		current.add(callable, results.size());
+		results.add(null);
+		if (current.callables.size() >= getChunkSize()) {
+			submit();
+		}
+	}
+
+	private int getChunkSize() {
+		long size = CHUNK_TIME / Math.max(1, cost);
+		return (int) Math.max(1, Math.min(MAX_CHUNK_SIZE, size));
+	}
+
+	private void submit() {
+		current.task = ParallelPool.submit(current);
+		chunks.add(current);
+		current = null;
+	}
+
+	/**
+	 * Waits for all the chunks and puts their results in the list
+	 */
+	public void finish() {
+		if (current != null) {
+			submit();
+		}
+		// if we are running in the pool ourselves, waiting for a task runs the queued tasks instead of blocking
+		for (Chunk chunk : chunks) {
+			Object [] calculated;
+			try {
+				calculated = chunk.task.get();
+			}
+			catch (Exception e) {
+				throw new RuntimeException("Could not compile results", e);
+			}
+			for (int i = 0; i < calculated.length; i++) {
+				results.set(chunk.positions.get(i), calculated[i]);
+			}
+		}
+		chunks.clear();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private class Chunk implements Callable<Object[]> {
+		private List<Integer> positions = new ArrayList<Integer>();
+		private ScriptRuntime fork;
+		private List<Callable> callables = new ArrayList<Callable>();
+		// the lazy elements that share a fork of the runtime they were created in, forking is done by the resolving thread
+		private Map<ScriptRuntime, ScriptRuntime> forks = new HashMap<ScriptRuntime, ScriptRuntime>();
+		private ForkJoinTask<Object[]> task;
+
+		public Chunk(ScriptRuntime fork) {
+			this.fork = fork;
+		}
+
+		public void add(Callable callable, int position) {
+			if (callable instanceof ForkedCallable && !forks.containsKey(((ForkedCallable) callable).getRuntime())) {
+				forks.put(((ForkedCallable) callable).getRuntime(), ((ForkedCallable) callable).getRuntime().fork(true));
+			}
+			callables.add(callable);
+			positions.add(position);
+		}
+
+		@Override
+		public Object[] call() throws Exception {
+			Object [] calculated = new Object[callables.size()];
+			long started = System.nanoTime();
+			fork.registerInThread();
+			try {
+				for (int i = 0; i < calculated.length; i++) {
+					Callable callable = callables.get(i);
+					calculated[i] = callable instanceof ForkedCallable
+						? ((ForkedCallable) callable).call(forks.get(((ForkedCallable) callable).getRuntime()))
+						: callable.call();
+				}
+			}
+			finally {
+				fork.unregisterInThread();
+			}
+			// not thread safe, it only needs to get close to the actual cost
+			cost = (cost + (System.nanoTime() - started) / calculated.length) / 2;
+			return calculated;
+		}
+	}
+}
@@ -0,0 +1,283 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import be.nabu.glue.utils.ScriptRuntime;
+
+/**
+ * The enclosed context of a lambda or function is a snapshot of the pipeline at the time it was created.
+ * Instead of copying the entire pipeline for every closure, closures share a frozen copy of it and only keep their own differences.
+ * The differences are copy-on-write: taking a snapshot of a closure map (e.g. a lambda that creates another lambda) does not copy anything, the first write afterwards copies the differences.
+ * To the outside world this behaves exactly like a copy: changes to the pipeline after the snapshot are not visible and changes to the closure are not visible to the pipeline or other closures.
+ */
+public class ClosureMap extends AbstractMap<String, Object> {
+
+	// the last snapshot taken in each runtime, it is kept out of the runtime context so scripts and forks never see it
+	private static Map<ScriptRuntime, Base> bases = Collections.synchronizedMap(new WeakHashMap<ScriptRuntime, Base>());
+	private static final int MINIMUM_SIZE = Integer.parseInt(System.getProperty("glue.closure.minimumSize", "32"));
+
+	// the shared snapshot, this is never modified
+	private Map<String, Object> base;
+	// the entries that were added or changed compared to the base
+	private Map<String, Object> overlay;
+	// the keys of the base that no longer exist
+	private Set<String> removed;
+	// whether the overlay and removed keys are shared with another map, they are copied before they are modified
+	private volatile boolean shared;
+
+	private ClosureMap(Map<String, Object> base) {
+		this(base, new HashMap<String, Object>(), new HashSet<String>(), false);
+	}
+
+	private ClosureMap(Map<String, Object> base, Map<String, Object> overlay, Set<String> removed, boolean shared) {
+		this.base = base;
+		this.overlay = overlay;
+		this.removed = removed;
+		this.shared = shared;
+	}
+
+	/**
+	 * Returns a snapshot of the given pipeline that can be modified independently of it
+	 */
+	public static Map<String, Object> capture(Map<String, Object> pipeline) {
+		// the writes to a closure map are tracked so we don't have to look at the rest of the pipeline
+		if (pipeline instanceof ClosureMap) {
+			return ((ClosureMap) pipeline).snapshot();
+		}
+		ScriptRuntime runtime = ScriptRuntime.getRuntime();
+		// small pipelines are simply copied
+		if (runtime == null || pipeline.size() < MINIMUM_SIZE) {
+			return new HashMap<String, Object>(pipeline);
+		}
+		// for other pipelines we can not see the writes, they are compared to the last snapshot instead
+		Base last = bases.get(runtime);
+		if (last != null && last.pipeline.get() == pipeline) {
+			ClosureMap closure = new ClosureMap(last.values);
+			if (closure.diff(pipeline)) {
+				return closure;
+			}
+		}
+		// if the pipeline has diverged too much from the last snapshot, we take a new one
+		Base base = new Base(pipeline);
+		bases.put(runtime, base);
+		return new ClosureMap(base.values);
+	}
+
+	/**
+	 * A new pipeline that starts out as a copy of the given context, a closure map is not actually copied
+	 */
+	public static Map<String, Object> copy(Map<String, Object> context) {
+		return context instanceof ClosureMap ? ((ClosureMap) context).snapshot() : new HashMap<String, Object>(context);
+	}
+
+	private ClosureMap snapshot() {
+		shared = true;
+		return new ClosureMap(base, overlay, removed, true);
+	}
+
+	private void own() {
+		if (shared) {
+			overlay = new HashMap<String, Object>(overlay);
+			removed = new HashSet<String>(removed);
+			shared = false;
+		}
+	}
+
+	/**
+	 * Fills in the differences between the base and the pipeline, returns false if there are too many to be worth it
+	 */
+	private boolean diff(Map<String, Object> pipeline) {
+		int limit = base.size() / 4;
+		int matched = 0;
+		for (Map.Entry<String, Object> entry : pipeline.entrySet()) {
+			Object value = base.get(entry.getKey());
+			if (value == null && !base.containsKey(entry.getKey())) {
+				overlay.put(entry.getKey(), entry.getValue());
+			}
+			else {
+				matched++;
+				// we only compare identity, this is a shallow copy just like a regular map copy would be
+				if (value != entry.getValue()) {
+					overlay.put(entry.getKey(), entry.getValue());
+				}
+			}
+			if (overlay.size() > limit) {
+				return false;
+			}
+		}
+		if (matched < base.size()) {
+			for (String key : base.keySet()) {
+				if (!pipeline.containsKey(key)) {
+					removed.add(key);
+				}
+			}
+		}
+		return overlay.size() + removed.size() <= limit;
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (overlay.containsKey(key)) {
+			return overlay.get(key);
+		}
+		return removed.contains(key) ? null : base.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return overlay.containsKey(key) || (!removed.contains(key) && base.containsKey(key));
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		Object previous = get(key);
+		own();
+		overlay.put(key, value);
+		removed.remove(key);
+		return previous;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		Object previous = get(key);
+		own();
+		overlay.remove(key);
+		if (base.containsKey(key)) {
+			removed.add((String) key);
+		}
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		overlay = new HashMap<String, Object>();
+		removed = new HashSet<String>(base.keySet());
+		shared = false;
+	}
+
+	@Override
+	public int size() {
+		int size = base.size() - removed.size();
+		for (String key : overlay.keySet()) {
+			if (!base.containsKey(key)) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new EntryIterator();
+			}
+			@Override
+			public int size() {
+				return ClosureMap.this.size();
+			}
+		};
+	}
+
+	/**
+	 * First runs over the overlay, then over the base entries that have not been overwritten or removed.
+	 * The iterator works on the state of the map when it was created, writes during the iteration copy the overlay first.
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+		private Map<String, Object> overlay = ClosureMap.this.overlay;
+		private Set<String> removed = ClosureMap.this.removed;
+		private Iterator<Map.Entry<String, Object>> overlayIterator = overlay.entrySet().iterator();
+		private Iterator<Map.Entry<String, Object>> baseIterator = base.entrySet().iterator();
+		private Map.Entry<String, Object> next;
+		private String current;
+
+		public EntryIterator() {
+			shared = true;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				if (overlayIterator.hasNext()) {
+					next = overlayIterator.next();
+				}
+				else {
+					while (baseIterator.hasNext()) {
+						Map.Entry<String, Object> entry = baseIterator.next();
+						if (!overlay.containsKey(entry.getKey()) && !removed.contains(entry.getKey())) {
+							next = entry;
+							break;
+						}
+					}
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			current = next.getKey();
+			Map.Entry<String, Object> entry = next;
+			next = null;
+			// neither the base nor a shared overlay can be modified directly, an update is a put on the map
+			return new SimpleEntry<String, Object>(entry.getKey(), entry.getValue()) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				public Object setValue(Object value) {
+					super.setValue(value);
+					return put(getKey(), value);
+				}
+			};
+		}
+
+		@Override
+		public void remove() {
+			if (current == null) {
+				throw new IllegalStateException();
+			}
+			ClosureMap.this.remove(current);
+			current = null;
+		}
+	}
+
+	private static class Base {
+		private WeakReference<Map<String, Object>> pipeline;
+		private Map<String, Object> values;
+
+		public Base(Map<String, Object> pipeline) {
+			this.pipeline = new WeakReference<Map<String, Object>>(pipeline);
+			this.values = new HashMap<String, Object>(pipeline);
+		}
+	}
+}
@@ -48,4 +48,8 @@ public class EnvironmentLabelEvaluator implements LabelEvaluator {
 		}
 	}
 
+	public String getFieldToCheck() {
+		return fieldToCheck;
+	}
+
 }
@@ -36,7 +36,6 @@ import be.nabu.glue.api.ExecutionContext;
 import be.nabu.glue.api.MethodDescription;
 import be.nabu.glue.api.ParameterDescription;
 import be.nabu.glue.core.api.CollectionIterable;
-import be.nabu.glue.core.api.EnclosedLambda;
 import be.nabu.glue.core.api.Lambda;
 import be.nabu.glue.core.impl.LambdaMethodProvider.LambdaExecutionOperation;
 import be.nabu.glue.impl.SimpleMethodDescription;
@@ -315,7 +314,7 @@ public class GlueUtils {
 		}
 		else {
 			final Iterable<?> iterable = GlueUtils.toSeries(original);
-			return new CollectionIterable() {
+			return MemoizedSeries.wrap(new CollectionIterable() {
 				@Override
 				public Iterator iterator() {
 					return new Iterator() {
@@ -339,7 +338,7 @@ public class GlueUtils {
 						}
 					};
 				}
-			};
+			});
 		}
 	}
 	
@@ -430,13 +429,11 @@ public class GlueUtils {
 				}
 			}
 		}
-		LambdaExecutionOperation lambdaOperation = new LambdaExecutionOperation(lambda.getDescription(), lambda.getOperation(), 
-			lambda instanceof EnclosedLambda ? ((EnclosedLambda) lambda).getEnclosedContext() : new HashMap<String, Object>());
 		try {
 			ScriptRuntime current = ScriptRuntime.getRuntime();
 			runtime.registerInThread();
 			try {
-				return lambdaOperation.evaluateWithParameters(runtime.getExecutionContext(), parameters.toArray());
+				return LambdaExecutionOperation.invoke(lambda, runtime.getExecutionContext(), parameters.toArray());
 			}
 			finally {
 				if (current == null) {
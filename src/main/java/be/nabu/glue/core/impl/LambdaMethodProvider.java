@@ -38,7 +38,6 @@ import be.nabu.libs.evaluator.QueryPart.Type;
 import be.nabu.libs.evaluator.api.Operation;
 import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
 import be.nabu.libs.evaluator.base.BaseMethodOperation;
-import be.nabu.libs.evaluator.impl.NativeOperation;
 import be.nabu.libs.evaluator.impl.VariableOperation;
 import be.nabu.libs.metrics.api.MetricInstance;
 import be.nabu.libs.metrics.api.MetricProvider;
@@ -48,14 +47,28 @@ public class LambdaMethodProvider implements MethodProvider {
 
 	@Override
 	public Operation<ExecutionContext> resolve(String name) {
-		Map<String, Lambda> lambdasInScope = getLambdasInScope();
-		if (lambdasInScope.containsKey(name)) {
-			Lambda lambda = lambdasInScope.get(name);
-			return new LambdaExecutionOperation(lambda.getDescription(), lambda.getOperation(), 
-				lambda instanceof EnclosedLambda ? ((EnclosedLambda) lambda).getEnclosedContext() : new HashMap<String, Object>());
+		Lambda lambda = getLambda(name);
+		return lambda == null ? null : newOperation(lambda);
+	}
+	
+	/**
+	 * Returns the lambda with the given name in the current scope (if any)
+	 */
+	public static Lambda getLambda(String name) {
+		ScriptRuntime runtime = ScriptRuntime.getRuntime();
+		if (runtime != null) {
+			Object object = runtime.getExecutionContext().getPipeline().get(name);
+			if (object instanceof Lambda) {
+				return (Lambda) object;
+			}
 		}
 		return null;
 	}
+	
+	public static LambdaExecutionOperation newOperation(Lambda lambda) {
+		return new LambdaExecutionOperation(lambda.getDescription(), lambda.getOperation(), 
+			lambda instanceof EnclosedLambda ? ((EnclosedLambda) lambda).getEnclosedContext() : new HashMap<String, Object>());
+	}
 
 	@Override
 	public List<MethodDescription> getAvailableMethods() {
@@ -100,14 +113,11 @@ public class LambdaMethodProvider implements MethodProvider {
 			this.enclosedContext = enclosedContext;
 		}
 		
-		@SuppressWarnings({ "unchecked", "rawtypes" })
+		@SuppressWarnings({ "unchecked" })
 		@Override
 		public Object evaluate(ExecutionContext context) throws EvaluationException {
-			ForkedExecutionContext forkedContext = new ForkedExecutionContext(context, new HashMap<String, Object>());
-			forkedContext.getPipeline().putAll(enclosedContext);
-			if (getParts().size() - 1 > description.getParameters().size() && (description.getParameters().isEmpty() || !description.getParameters().get(description.getParameters().size() - 1).isList())) {
-				throw new EvaluationException("Too many parameters for lambda: " + (getParts().size() - 1) + "/" + description.getParameters().size());
-			}
+			ForkedExecutionContext forkedContext = new ForkedExecutionContext(context, newPipeline(description, operation, enclosedContext));
+			checkParameterAmount(description, getParts().size() - 1);
 			boolean wasOriginalList = false;
 			for (int i = 1; i < getParts().size(); i++) {
 				Operation<ExecutionContext> argumentOperation = ((Operation<ExecutionContext>) getParts().get(i).getContent());
@@ -131,35 +141,61 @@ public class LambdaMethodProvider implements MethodProvider {
 					forkedContext.getPipeline().put(name, value);
 				}
 				else {
-					Object value = argumentOperation.evaluate(context);
-					if (value == null) {
-						value = description.getParameters().get(i - 1).getDefaultValue();
-					}
-					ParameterDescription parameterDescription = description.getParameters().get(i > description.getParameters().size() ? description.getParameters().size() - 1 : i - 1);
-					if (i > description.getParameters().size()) {
-						Object object = forkedContext.getPipeline().get(parameterDescription.getName());
-						if (i == description.getParameters().size() + 1 && wasOriginalList) {
-							List list = new ArrayList();
-							list.add(object);
-							list.add(value);
-							value = list;
-						}
-						else {
-							((List) object).add(value);
-							value = object;
-						}
-					}
-					else if (value != null && parameterDescription.isList() && !(value instanceof Iterable)) {
-						List list = new ArrayList();
-						list.add(value);
-						value = list;
-					}
-					else if (value instanceof Iterable) {
-						wasOriginalList = i == description.getParameters().size();
-					}
-					forkedContext.getPipeline().put(parameterDescription.getName(), value);
+					wasOriginalList = bind(description, forkedContext.getPipeline(), i, argumentOperation.evaluate(context), wasOriginalList);
 				}
 			}
+			return execute(description, operation, forkedContext);
+		}
+		
+		private static Map<String, Object> newPipeline(MethodDescription description, Operation<ExecutionContext> operation, Map<String, Object> enclosedContext) {
+			if (SlotLayout.ENABLED) {
+				return new SlotMap(SlotLayout.forOperation(description, operation), enclosedContext);
+			}
+			// the writes to the new pipeline are tracked so closures created by the lambda don't have to copy it
+			return enclosedContext == null ? new HashMap<String, Object>() : ClosureMap.copy(enclosedContext);
+		}
+		
+		private static void checkParameterAmount(MethodDescription description, int amount) throws EvaluationException {
+			if (amount > description.getParameters().size() && (description.getParameters().isEmpty() || !description.getParameters().get(description.getParameters().size() - 1).isList())) {
+				throw new EvaluationException("Too many parameters for lambda: " + amount + "/" + description.getParameters().size());
+			}
+		}
+		
+		/**
+		 * Binds the value of the positional parameter at the given (1-based) index, this returns whether the last defined parameter was originally passed in as a list
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private static boolean bind(MethodDescription description, Map<String, Object> pipeline, int i, Object value, boolean wasOriginalList) {
+			if (value == null) {
+				value = description.getParameters().get(i - 1).getDefaultValue();
+			}
+			ParameterDescription parameterDescription = description.getParameters().get(i > description.getParameters().size() ? description.getParameters().size() - 1 : i - 1);
+			if (i > description.getParameters().size()) {
+				Object object = pipeline.get(parameterDescription.getName());
+				if (i == description.getParameters().size() + 1 && wasOriginalList) {
+					List list = new ArrayList();
+					list.add(object);
+					list.add(value);
+					value = list;
+				}
+				else {
+					((List) object).add(value);
+					value = object;
+				}
+			}
+			else if (value != null && parameterDescription.isList() && !(value instanceof Iterable)) {
+				List list = new ArrayList();
+				list.add(value);
+				value = list;
+			}
+			else if (value instanceof Iterable) {
+				wasOriginalList = i == description.getParameters().size();
+			}
+			pipeline.put(parameterDescription.getName(), value);
+			return wasOriginalList;
+		}
+		
+		private static Object execute(MethodDescription description, Operation<ExecutionContext> operation, ForkedExecutionContext forkedContext) throws EvaluationException {
 			ExecutionContext previousContext = ScriptRuntime.getRuntime().getExecutionContext();
 			ScriptRuntime.getRuntime().setExecutionContext(forkedContext);
 			MetricInstance metrics = null;
@@ -198,16 +234,25 @@ public class LambdaMethodProvider implements MethodProvider {
 			return enclosedContext;
 		}
 
-		@SuppressWarnings("rawtypes")
 		public Object evaluateWithParameters(ExecutionContext context, Object...parameters) throws EvaluationException {
-			LambdaExecutionOperation lambda = new LambdaExecutionOperation(getMethodDescription(), operation, enclosedContext);
-			lambda.getParts().add(new QueryPart(Type.STRING, "anonymous"));
+			return invoke(description, operation, enclosedContext, context, parameters);
+		}
+		
+		/**
+		 * Runs the lambda with positional parameters, unlike evaluation of an operation this does not need to wrap the parameters in operations first
+		 */
+		public static Object invoke(Lambda lambda, ExecutionContext context, Object...parameters) throws EvaluationException {
+			return invoke(lambda.getDescription(), lambda.getOperation(), lambda instanceof EnclosedLambda ? ((EnclosedLambda) lambda).getEnclosedContext() : null, context, parameters);
+		}
+		
+		private static Object invoke(MethodDescription description, Operation<ExecutionContext> operation, Map<String, Object> enclosedContext, ExecutionContext context, Object...parameters) throws EvaluationException {
+			checkParameterAmount(description, parameters.length);
+			ForkedExecutionContext forkedContext = new ForkedExecutionContext(context, newPipeline(description, operation, enclosedContext));
+			boolean wasOriginalList = false;
 			for (int i = 0; i < parameters.length; i++) {
-				NativeOperation<?> operation = new NativeOperation();
-				operation.add(new QueryPart(Type.UNKNOWN, parameters[i]));
-				lambda.getParts().add(new QueryPart(Type.OPERATION, operation));
+				wasOriginalList = bind(description, forkedContext.getPipeline(), i + 1, parameters[i], wasOriginalList);
 			}
-			return lambda.evaluate(context);
+			return execute(description, operation, forkedContext);
 		}
 		
 	}
@@ -0,0 +1,278 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import be.nabu.glue.core.api.CollectionIterable;
+
+/**
+ * A lazy series that remembers the elements as they are calculated so iterating it again does not run the lambdas again.
+ * The first {@link #MAX_ELEMENTS} elements are kept in memory, the rest is written to a {@link SpillFile}.
+ * If an element can not be written to disk, the series stops remembering and new iterations calculate the elements again.
+ */
+public class MemoizedSeries implements CollectionIterable<Object> {
+
+	public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("glue.memoize", "false"));
+	private static final int MAX_ELEMENTS = Integer.parseInt(System.getProperty("glue.memoize.maxElements", "100000"));
+
+	private Iterable<?> source;
+	// shared by all the iterators, only the thread that is fetching reads from it
+	private Iterator<?> iterator;
+	private List<Object> elements = new ArrayList<Object>();
+	private SpillFile spill;
+	private boolean complete, abandoned, fetching;
+
+	private MemoizedSeries(Iterable<?> source) {
+		this.source = source;
+	}
+
+	/**
+	 * Wraps the series if memoization is enabled
+	 */
+	public static CollectionIterable<?> wrap(CollectionIterable<?> iterable) {
+		return ENABLED && iterable != null && !(iterable instanceof MemoizedSeries) ? new MemoizedSeries(iterable) : iterable;
+	}
+
+	public static Iterable<?> memoize(Iterable<?> iterable) {
+		// collections are already in memory
+		return iterable == null || iterable instanceof MemoizedSeries || iterable instanceof Collection ? iterable : new MemoizedSeries(iterable);
+	}
+
+	public Iterable<?> getSource() {
+		return source;
+	}
+
+	/**
+	 * Whether the source has already been read
+	 */
+	public synchronized boolean isStarted() {
+		return iterator != null || complete || abandoned;
+	}
+
+	@Override
+	public synchronized Iterator<Object> iterator() {
+		if (abandoned) {
+			return newSourceIterator(0);
+		}
+		return new MemoizedIterator();
+	}
+
+	@SuppressWarnings("unchecked")
+	private Iterator<Object> newSourceIterator(long skip) {
+		Iterator<Object> iterator = (Iterator<Object>) source.iterator();
+		for (long i = 0; i < skip && iterator.hasNext(); i++) {
+			iterator.next();
+		}
+		return iterator;
+	}
+
+	private long getSize() {
+		return elements.size() + (spill == null ? 0 : spill.size());
+	}
+
+	/**
+	 * Makes sure the element at the position is calculated, returns false if there is no such element or the series was abandoned.
+	 * Only one thread reads the source at a time but the element is resolved outside of the lock so other iterators can read what was already calculated.
+	 */
+	private boolean fetch(long position) {
+		while (true) {
+			Iterator<?> iterator;
+			synchronized(this) {
+				// elements that were already calculated can be read while another thread is fetching
+				while (fetching && !abandoned && getSize() <= position) {
+					try {
+						wait();
+					}
+					catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				if (abandoned) {
+					return false;
+				}
+				else if (complete || getSize() > position) {
+					return getSize() > position;
+				}
+				if (this.iterator == null) {
+					this.iterator = source.iterator();
+				}
+				iterator = this.iterator;
+				fetching = true;
+			}
+			try {
+				boolean hasNext = iterator.hasNext();
+				Object next = hasNext ? GlueUtils.resolveSingle(iterator.next()) : null;
+				synchronized(this) {
+					if (hasNext) {
+						add(next);
+					}
+					else {
+						complete = true;
+					}
+				}
+			}
+			finally {
+				synchronized(this) {
+					fetching = false;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private void add(Object next) {
+		if (elements.size() < MAX_ELEMENTS) {
+			elements.add(next);
+		}
+		else if (SpillFile.isSpillable(next)) {
+			try {
+				if (spill == null) {
+					spill = new SpillFile(this);
+				}
+				spill.write(next);
+			}
+			catch (IOException e) {
+				abandon();
+			}
+		}
+		else {
+			abandon();
+		}
+	}
+
+	/**
+	 * Remembers the elements if they were resolved in one go before anyone started iterating, returns false if they are not remembered
+	 */
+	public synchronized boolean fill(List<?> resolved) {
+		if (iterator != null || fetching || abandoned || complete || resolved.size() > MAX_ELEMENTS) {
+			return false;
+		}
+		elements.addAll(resolved);
+		complete = true;
+		return true;
+	}
+
+	private synchronized boolean isAbandoned() {
+		return abandoned;
+	}
+
+	private void abandon() {
+		abandoned = true;
+		elements = null;
+		iterator = null;
+		if (spill != null) {
+			try {
+				spill.close();
+			}
+			catch (IOException e) {
+				// the file is removed on exit
+			}
+			spill = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		List<Object> list = new ArrayList<Object>();
+		for (Object object : this) {
+			list.add(object);
+		}
+		return list.toString();
+	}
+
+	private class MemoizedIterator implements Iterator<Object> {
+		private long position;
+		private SpillFile.Reader reader;
+		// set when the series is abandoned while we are iterating
+		private Iterator<Object> fallback;
+
+		@Override
+		public boolean hasNext() {
+			if (fallback != null) {
+				return fallback.hasNext();
+			}
+			if (fetch(position)) {
+				return true;
+			}
+			else if (isAbandoned()) {
+				fallback = newSourceIterator(position);
+				return fallback.hasNext();
+			}
+			closeReader();
+			return false;
+		}
+
+		@Override
+		public Object next() {
+			if (!hasNext()) {
+				return null;
+			}
+			if (fallback == null) {
+				synchronized(MemoizedSeries.this) {
+					if (!abandoned) {
+						return nextMemoized();
+					}
+				}
+				fallback = newSourceIterator(position);
+			}
+			return fallback.hasNext() ? GlueUtils.resolveSingle(fallback.next()) : null;
+		}
+
+		private Object nextMemoized() {
+			if (position < elements.size()) {
+				return elements.get((int) position++);
+			}
+			try {
+				if (reader == null) {
+					reader = spill.read();
+					// the reader starts at the first spilled element
+					for (long i = elements.size(); i < position; i++) {
+						reader.next();
+					}
+				}
+				position++;
+				return reader.next();
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Could not read memoized element " + position, e);
+			}
+		}
+
+		private void closeReader() {
+			if (reader != null) {
+				try {
+					reader.close();
+				}
+				catch (IOException e) {
+					// ignore
+				}
+				reader = null;
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
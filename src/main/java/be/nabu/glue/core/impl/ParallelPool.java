@@ -0,0 +1,135 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.nabu.glue.api.ExecutionContext;
+import be.nabu.glue.utils.ScriptRuntime;
+import be.nabu.libs.metrics.api.MetricInstance;
+import be.nabu.libs.metrics.api.MetricProvider;
+import be.nabu.libs.metrics.api.MetricTimer;
+
+/**
+ * The work stealing pool that is shared by all parallel resolving of series.
+ * Tasks that are submitted from within the pool end up in the queue of the worker that submitted them, while it waits for the result it can run them itself so nested resolves can not starve the pool.
+ */
+public class ParallelPool {
+
+	public static final String METRIC_QUEUE_TIME = "parallelQueueTime";
+	public static final String METRIC_EXECUTION_TIME = "parallelExecutionTime";
+
+	private static final int THREADS = Integer.parseInt(System.getProperty("glue.parallel.threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+	private static volatile ForkJoinPool pool;
+	private static AtomicLong submitted = new AtomicLong(), completed = new AtomicLong();
+
+	public static ForkJoinPool getPool() {
+		if (pool == null) {
+			synchronized(ParallelPool.class) {
+				if (pool == null) {
+					pool = new ForkJoinPool(Math.max(1, THREADS), new ForkJoinWorkerThreadFactory() {
+						private AtomicLong counter = new AtomicLong();
+						@Override
+						public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+							ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {};
+							thread.setName("glue-parallel-" + counter.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					}, null, false);
+				}
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Runs the callable in the pool, the result can be retrieved with join() or get()
+	 */
+	public static <T> ForkJoinTask<T> submit(final Callable<T> callable) {
+		final MetricInstance metrics = getMetrics();
+		final MetricTimer queueTimer = metrics == null ? null : metrics.start(METRIC_QUEUE_TIME);
+		ForkJoinTask<T> task = ForkJoinTask.adapt(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				if (queueTimer != null) {
+					queueTimer.stop();
+				}
+				MetricTimer timer = metrics == null ? null : metrics.start(METRIC_EXECUTION_TIME);
+				try {
+					return callable.call();
+				}
+				finally {
+					completed.incrementAndGet();
+					if (timer != null) {
+						timer.stop();
+					}
+				}
+			}
+		});
+		submitted.incrementAndGet();
+		Thread thread = Thread.currentThread();
+		if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == getPool()) {
+			task.fork();
+		}
+		else {
+			getPool().execute(task);
+		}
+		return task;
+	}
+
+	private static MetricInstance getMetrics() {
+		ScriptRuntime runtime = ScriptRuntime.getRuntime();
+		ExecutionContext context = runtime == null ? null : runtime.getExecutionContext();
+		return context instanceof MetricProvider ? ((MetricProvider) context).getMetricInstance("glue.parallel") : null;
+	}
+
+	public static int getThreads() {
+		return getPool().getParallelism();
+	}
+
+	/**
+	 * The amount of tasks that are waiting to be picked up
+	 */
+	public static long getQueued() {
+		ForkJoinPool pool = ParallelPool.pool;
+		return pool == null ? 0 : pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+	}
+
+	/**
+	 * The amount of threads that are currently running tasks
+	 */
+	public static int getActive() {
+		ForkJoinPool pool = ParallelPool.pool;
+		return pool == null ? 0 : pool.getActiveThreadCount();
+	}
+
+	public static long getSubmitted() {
+		return submitted.get();
+	}
+
+	public static long getCompleted() {
+		return completed.get();
+	}
+}
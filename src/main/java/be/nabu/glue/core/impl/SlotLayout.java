@@ -0,0 +1,148 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import be.nabu.glue.api.ExecutionContext;
+import be.nabu.glue.api.MethodDescription;
+import be.nabu.glue.api.ParameterDescription;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+
+/**
+ * Maps the local variable names of a lambda to fixed positions in a {@link SlotMap}.
+ * The layout is calculated once per parsed operation: the parameters come first, followed by every variable that is read in the body.
+ */
+public class SlotLayout {
+
+	public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("glue.slots", "false"));
+
+	// looked up on every lambda call so this must not lock, the operations are weakly referenced
+	private static Map<OperationKey, SlotLayout> layouts = new ConcurrentHashMap<OperationKey, SlotLayout>();
+	private static ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+	private Map<String, Integer> indexes = new HashMap<String, Integer>();
+	private List<String> names = new ArrayList<String>();
+
+	private SlotLayout() {
+		// built through forOperation
+	}
+
+	public static SlotLayout forOperation(MethodDescription description, Operation<ExecutionContext> operation) {
+		SlotLayout layout = layouts.get(new OperationKey(operation, null));
+		if (layout == null) {
+			Reference<?> reference;
+			while ((reference = queue.poll()) != null) {
+				layouts.remove(reference);
+			}
+			layout = new SlotLayout();
+			for (ParameterDescription parameter : description.getParameters()) {
+				layout.add(parameter.getName());
+			}
+			layout.collect(operation);
+			SlotLayout existing = layouts.putIfAbsent(new OperationKey(operation, queue), layout);
+			if (existing != null) {
+				layout = existing;
+			}
+		}
+		return layout;
+	}
+	
+	/**
+	 * Compares the operations by identity without keeping them alive
+	 */
+	private static class OperationKey extends WeakReference<Object> {
+		private int hash;
+
+		public OperationKey(Object operation, ReferenceQueue<Object> queue) {
+			super(operation, queue);
+			this.hash = System.identityHashCode(operation);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (object == this) {
+				return true;
+			}
+			Object operation = get();
+			return object instanceof OperationKey && operation != null && operation == ((OperationKey) object).get();
+		}
+	}
+
+	private void add(String name) {
+		if (name != null && !indexes.containsKey(name)) {
+			indexes.put(name, names.size());
+			names.add(name);
+		}
+	}
+
+	private void collect(Operation<?> operation) {
+		String name = getLocalName(operation);
+		if (name != null) {
+			add(name);
+		}
+		for (QueryPart part : operation.getParts()) {
+			if (part.getContent() instanceof Operation) {
+				collect((Operation<?>) part.getContent());
+			}
+		}
+	}
+
+	/**
+	 * Returns the variable name if the operation is a plain read of a local variable, anything more complex (paths, root access,...) is left to the regular variable resolving
+	 */
+	public static String getLocalName(Operation<?> operation) {
+		if (operation.getType() == OperationType.VARIABLE && operation.getParts().size() == 1 && operation.getParts().get(0).getType() == QueryPart.Type.VARIABLE) {
+			Object content = operation.getParts().get(0).getContent();
+			if (content instanceof String && !((String) content).isEmpty() && ((String) content).indexOf('/') < 0) {
+				return (String) content;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns -1 if the name has no slot
+	 */
+	public int getIndex(Object name) {
+		Integer index = indexes.get(name);
+		return index == null ? -1 : index;
+	}
+
+	public String getName(int index) {
+		return names.get(index);
+	}
+
+	public int size() {
+		return names.size();
+	}
+}
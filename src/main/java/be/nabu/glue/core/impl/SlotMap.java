@@ -0,0 +1,242 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A pipeline that stores the variables known to its {@link SlotLayout} in an array.
+ * Variable operations that were resolved against the same layout can read a slot by index, everything else still sees a regular map.
+ * Names that are not part of the layout (e.g. set dynamically or only used by a nested lambda) end up in an overflow map.
+ * The enclosed context is not copied into the overflow, the overflow starts out as a {@link ClosureMap} snapshot of it.
+ */
+public class SlotMap extends AbstractMap<String, Object> {
+
+	// marks a slot that has no value, null is a valid value
+	private static final Object ABSENT = new Object();
+
+	private SlotLayout layout;
+	private Object [] slots;
+	private int used;
+	private Map<String, Object> overflow;
+	// the amount of layout names in the overflow, they are hidden by the slots
+	private int hidden;
+
+	public SlotMap(SlotLayout layout) {
+		this(layout, null);
+	}
+
+	public SlotMap(SlotLayout layout, Map<String, Object> enclosedContext) {
+		this.layout = layout;
+		this.slots = new Object[layout.size()];
+		Arrays.fill(slots, ABSENT);
+		if (enclosedContext != null) {
+			overflow = ClosureMap.copy(enclosedContext);
+			// only the variables that have a slot are looked up, the rest stays where it is
+			for (int i = 0; i < slots.length; i++) {
+				String name = layout.getName(i);
+				if (overflow.containsKey(name)) {
+					slots[i] = overflow.get(name);
+					used++;
+					hidden++;
+				}
+			}
+		}
+	}
+	public SlotLayout getLayout() {
+		return layout;
+	}
+
+	public boolean hasSlot(int index) {
+		return slots[index] != ABSENT;
+	}
+
+	public Object getSlot(int index) {
+		Object value = slots[index];
+		return value == ABSENT ? null : value;
+	}
+
+	@Override
+	public Object get(Object key) {
+		int index = layout.getIndex(key);
+		if (index >= 0) {
+			return getSlot(index);
+		}
+		return overflow == null ? null : overflow.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int index = layout.getIndex(key);
+		if (index >= 0) {
+			return hasSlot(index);
+		}
+		return overflow != null && overflow.containsKey(key);
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		int index = layout.getIndex(key);
+		if (index >= 0) {
+			Object previous = slots[index];
+			slots[index] = value;
+			if (previous == ABSENT) {
+				used++;
+				return null;
+			}
+			return previous;
+		}
+		if (overflow == null) {
+			overflow = new HashMap<String, Object>();
+		}
+		return overflow.put(key, value);
+	}
+
+	@Override
+	public Object remove(Object key) {
+		int index = layout.getIndex(key);
+		if (index >= 0) {
+			return clearSlot(index);
+		}
+		return overflow == null ? null : overflow.remove(key);
+	}
+
+	private Object clearSlot(int index) {
+		Object previous = slots[index];
+		if (previous == ABSENT) {
+			return null;
+		}
+		slots[index] = ABSENT;
+		used--;
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(slots, ABSENT);
+		used = 0;
+		overflow = null;
+		hidden = 0;
+	}
+
+	@Override
+	public int size() {
+		return used + (overflow == null ? 0 : overflow.size() - hidden);
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new EntryIterator();
+			}
+			@Override
+			public int size() {
+				return SlotMap.this.size();
+			}
+		};
+	}
+
+	/**
+	 * First runs over the filled slots, then over the names in the overflow that do not have a slot
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+		private int next = -1, current = -1;
+		// the overflow can be modified while we iterate so we work on its keys at the start of the iteration
+		private List<String> overflowKeys;
+		private int overflowIndex;
+		private String currentKey;
+
+		@Override
+		public boolean hasNext() {
+			if (next < 0) {
+				next = current + 1;
+			}
+			while (next < slots.length && slots[next] == ABSENT) {
+				next++;
+			}
+			if (next < slots.length) {
+				return true;
+			}
+			if (overflowKeys == null) {
+				overflowKeys = overflow == null ? new ArrayList<String>() : new ArrayList<String>(overflow.keySet());
+			}
+			while (overflowIndex < overflowKeys.size() && (layout.getIndex(overflowKeys.get(overflowIndex)) >= 0 || overflow == null || !overflow.containsKey(overflowKeys.get(overflowIndex)))) {
+				overflowIndex++;
+			}
+			return overflowIndex < overflowKeys.size();
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (next < slots.length) {
+				current = next;
+				next = -1;
+				currentKey = null;
+				final int index = current;
+				return new SimpleEntry<String, Object>(layout.getName(index), slots[index]) {
+					private static final long serialVersionUID = 1L;
+					@Override
+					public Object setValue(Object value) {
+						super.setValue(value);
+						Object previous = slots[index];
+						slots[index] = value;
+						return previous;
+					}
+				};
+			}
+			current = slots.length;
+			currentKey = overflowKeys.get(overflowIndex++);
+			return new SimpleEntry<String, Object>(currentKey, overflow.get(currentKey)) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				public Object setValue(Object value) {
+					super.setValue(value);
+					return put(getKey(), value);
+				}
+			};
+		}
+
+		@Override
+		public void remove() {
+			if (currentKey != null) {
+				SlotMap.this.remove(currentKey);
+				currentKey = null;
+			}
+			else if (current >= 0 && current < slots.length && slots[current] != ABSENT) {
+				clearSlot(current);
+			}
+			else {
+				throw new IllegalStateException();
+			}
+		}
+	}
+}
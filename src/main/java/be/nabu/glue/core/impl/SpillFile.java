@@ -0,0 +1,186 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A temporary file that series can write elements to when they no longer fit in memory.
+ * Elements are appended with java serialization and can be read back in the same order by any amount of readers, even while the file is still being written.
+ * The file is removed when it is closed or, if it has an owner, as soon as that owner is garbage collected.
+ * Files that still exist when the JVM stops are removed then.
+ */
+public class SpillFile implements Closeable {
+
+	private static ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	private static Map<Reference<?>, File> owned = new HashMap<Reference<?>, File>();
+	// unlike deleteOnExit() this forgets the files that have already been removed
+	private static Set<File> files = new LinkedHashSet<File>();
+
+	static {
+		Thread cleaner = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						Reference<?> reference = queue.remove();
+						File file;
+						synchronized(owned) {
+							file = owned.remove(reference);
+						}
+						delete(file);
+					}
+					catch (InterruptedException e) {
+						// keep cleaning
+					}
+				}
+			}
+		}, "glue-spill-cleaner");
+		cleaner.setDaemon(true);
+		cleaner.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				List<File> remaining;
+				synchronized(files) {
+					remaining = new ArrayList<File>(files);
+				}
+				for (File file : remaining) {
+					file.delete();
+				}
+			}
+		}, "glue-spill-shutdown"));
+	}
+
+	private File file;
+	private ObjectOutputStream output;
+	private volatile long size;
+
+	public SpillFile() throws IOException {
+		this(null);
+	}
+
+	/**
+	 * The file is deleted once the owner is no longer reachable
+	 */
+	public SpillFile(Object owner) throws IOException {
+		file = File.createTempFile("glue-spill", ".tmp");
+		synchronized(files) {
+			files.add(file);
+		}
+		output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		output.flush();
+		if (owner != null) {
+			synchronized(owned) {
+				owned.put(new PhantomReference<Object>(owner, queue), file);
+			}
+		}
+	}
+
+	private static void delete(File file) {
+		if (file != null) {
+			file.delete();
+			synchronized(files) {
+				files.remove(file);
+			}
+		}
+	}
+
+	public static boolean isSpillable(Object object) {
+		return object == null || object instanceof Serializable;
+	}
+
+	public synchronized void write(Object object) throws IOException {
+		output.writeObject(object);
+		// we don't want the stream to keep a reference to everything that was written
+		output.reset();
+		output.flush();
+		size++;
+	}
+
+	/**
+	 * The amount of elements that can be read
+	 */
+	public long size() {
+		return size;
+	}
+
+	public Reader read() throws IOException {
+		return new Reader();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			output.close();
+		}
+		finally {
+			delete(file);
+		}
+	}
+
+	public class Reader implements Closeable {
+		private ObjectInputStream input;
+		private long position;
+
+		private Reader() throws IOException {
+			input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+		}
+
+		public boolean hasNext() {
+			return position < size;
+		}
+
+		public Object next() throws IOException {
+			if (!hasNext()) {
+				throw new IOException("No more elements in the spill file");
+			}
+			try {
+				Object object = input.readObject();
+				position++;
+				return object;
+			}
+			catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			input.close();
+		}
+	}
+}
@@ -23,19 +23,25 @@ import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import be.nabu.glue.api.ExecutionContext;
+import be.nabu.glue.api.ExecutionEnvironment;
 import be.nabu.glue.api.ExecutionException;
 import be.nabu.glue.api.Executor;
 import be.nabu.glue.api.ExecutorContext;
 import be.nabu.glue.api.ExecutorGroup;
+import be.nabu.glue.api.LabelEvaluator;
 import be.nabu.glue.api.MethodDescription;
 import be.nabu.glue.api.ParameterDescription;
 import be.nabu.glue.core.api.DescribedOperation;
 import be.nabu.glue.core.api.Lambda;
 import be.nabu.glue.core.api.MethodProvider;
+import be.nabu.glue.core.impl.EnvironmentLabelEvaluator;
+import be.nabu.glue.core.impl.operations.ConstantFolder;
 import be.nabu.glue.core.impl.operations.GlueOperationProvider;
+import be.nabu.glue.core.impl.operations.GlueOperationProvider.IndexedMethod;
 import be.nabu.glue.utils.ScriptRuntime;
 import be.nabu.libs.evaluator.ContextAccessorFactory;
 import be.nabu.libs.evaluator.EvaluationException;
@@ -51,10 +57,13 @@ import be.nabu.libs.evaluator.impl.VariableOperation;
 abstract public class BaseExecutor implements Executor {
 
 	private ExecutorContext context;
-	private Operation<ExecutionContext> condition, rewritten;
+	private Operation<ExecutionContext> condition;
+	private volatile Operation<ExecutionContext> rewritten;
 	private UUID uuid;
 	private ExecutorGroup parent;
 	private OperationProvider<ExecutionContext> operationProvider;
+	private volatile LabelVerdict labelVerdict;
+	private static final boolean CACHE_LABELS = Boolean.parseBoolean(System.getProperty("glue.label.cache", "true"));
 
 	public BaseExecutor(ExecutorGroup parent, ExecutorContext context, Operation<ExecutionContext> condition) {
 		this.parent = parent;
@@ -91,6 +100,65 @@ abstract public class BaseExecutor implements Executor {
 		return rewritten;
 	}
 
+	/**
+	 * Rewrites the operations of this executor up front if they only call methods that are statically known, otherwise they are rewritten on first execution.
+	 * The variables are all the names the script can put in the pipeline, a call to such a name can end up at a lambda so it is not linked.
+	 */
+	public void link(Set<String> variables) {
+		if (condition != null && rewritten == null && isLinkable(condition, variables)) {
+			try {
+				getRewrittenCondition();
+			}
+			catch (ExecutionException e) {
+				// the error is reported when the executor is run
+			}
+		}
+	}
+	
+	/**
+	 * Adds the names this executor assigns or reads, lambda parameters are read as variables in the lambda declaration
+	 */
+	public void collectVariables(Set<String> variables) {
+		if (condition != null) {
+			collectVariables(condition, variables);
+		}
+	}
+	
+	public static void collectVariables(Operation<?> operation, Set<String> variables) {
+		for (QueryPart part : operation.getParts()) {
+			if (part.getType() == Type.VARIABLE && part.getContent() instanceof String) {
+				String name = (String) part.getContent();
+				variables.add(name.indexOf('/') < 0 ? name : name.substring(0, name.indexOf('/')));
+			}
+			else if (part.getContent() instanceof Operation) {
+				collectVariables((Operation<?>) part.getContent(), variables);
+			}
+		}
+	}
+	
+	protected boolean isLinkable(Operation<ExecutionContext> operation, Set<String> variables) {
+		return operationProvider instanceof GlueOperationProvider && isLinkable((GlueOperationProvider) operationProvider, operation, variables);
+	}
+	
+	/**
+	 * The rewrite checks the pipeline for lambdas first, so only names that resolve to an indexed method and can never be in the pipeline can be rewritten without a runtime
+	 */
+	@SuppressWarnings("unchecked")
+	public static boolean isLinkable(GlueOperationProvider operationProvider, Operation<ExecutionContext> operation, Set<String> variables) {
+		if (operation.getType() == OperationType.METHOD && !(operation instanceof DescribedOperation)) {
+			Object name = operation.getParts().get(0).getContent();
+			if (!(name instanceof String) || variables.contains(name) || operationProvider.getIndexedMethod((String) name) == null) {
+				return false;
+			}
+		}
+		for (QueryPart part : operation.getParts()) {
+			if (part.getContent() instanceof Operation && !isLinkable(operationProvider, (Operation<ExecutionContext>) part.getContent(), variables)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	@Override
 	public boolean shouldExecute(ExecutionContext context) throws ExecutionException {
 		if (getContext().getAnnotations().containsKey("disabled")) {
@@ -101,9 +169,7 @@ abstract public class BaseExecutor implements Executor {
 		}
 		boolean shouldExecute = true;
 		if (getContext().getLabel() != null) {
-			shouldExecute = context.getLabelEvaluator() != null
-				? context.getLabelEvaluator().shouldExecute(getContext().getLabel(), context.getExecutionEnvironment())
-				: getContext().getLabel().equalsIgnoreCase(context.getExecutionEnvironment().getName());
+			shouldExecute = isLabelMatch(context);
 		}
 		if (shouldExecute && condition != null) {
 			try {
@@ -116,6 +182,52 @@ abstract public class BaseExecutor implements Executor {
 		return shouldExecute;
 	}
 
+	private boolean isLabelMatch(ExecutionContext context) {
+		String subject = CACHE_LABELS ? getLabelSubject(context) : null;
+		LabelVerdict verdict = subject != null ? labelVerdict : null;
+		if (verdict == null || verdict.environment != context.getExecutionEnvironment() || verdict.evaluator != context.getLabelEvaluator() || !subject.equals(verdict.subject)) {
+			boolean matches = context.getLabelEvaluator() != null
+				? context.getLabelEvaluator().shouldExecute(getContext().getLabel(), context.getExecutionEnvironment())
+				: getContext().getLabel().equalsIgnoreCase(context.getExecutionEnvironment().getName());
+			if (subject == null) {
+				return matches;
+			}
+			verdict = new LabelVerdict(context.getExecutionEnvironment(), context.getLabelEvaluator(), subject, matches);
+			labelVerdict = verdict;
+		}
+		return verdict.matches;
+	}
+	
+	/**
+	 * The value the label is matched against, the verdict is only remembered as long as it does not change
+	 * Returns null if it is unknown what a custom evaluator looks at, in which case nothing is cached
+	 */
+	private static String getLabelSubject(ExecutionContext context) {
+		ExecutionEnvironment environment = context.getExecutionEnvironment();
+		LabelEvaluator evaluator = context.getLabelEvaluator();
+		if (evaluator == null || (evaluator instanceof EnvironmentLabelEvaluator && ((EnvironmentLabelEvaluator) evaluator).getFieldToCheck() == null)) {
+			return "name:" + environment.getName();
+		}
+		else if (evaluator instanceof EnvironmentLabelEvaluator) {
+			return "parameter:" + environment.getParameters().get(((EnvironmentLabelEvaluator) evaluator).getFieldToCheck());
+		}
+		return null;
+	}
+	
+	private static class LabelVerdict {
+		private ExecutionEnvironment environment;
+		private LabelEvaluator evaluator;
+		private String subject;
+		private boolean matches;
+		
+		public LabelVerdict(ExecutionEnvironment environment, LabelEvaluator evaluator, String subject, boolean matches) {
+			this.environment = environment;
+			this.evaluator = evaluator;
+			this.subject = subject;
+			this.matches = matches;
+		}
+	}
+
 	@Override
 	public ExecutorGroup getParent() {
 		return parent;
@@ -147,9 +259,13 @@ abstract public class BaseExecutor implements Executor {
 	}
 	
 	public Operation<ExecutionContext> rewrite(Operation<ExecutionContext> operation) throws ParseException {
-		return operationProvider instanceof GlueOperationProvider
-			? rewrite((GlueOperationProvider) operationProvider, operation)
-			: operation;
+		if (!(operationProvider instanceof GlueOperationProvider)) {
+			return operation;
+		}
+		Operation<ExecutionContext> rewritten = rewrite((GlueOperationProvider) operationProvider, operation);
+		// calls that don't change within the surrounding loop only have to be calculated once per run of the loop
+		LoopInvariants invariants = LoopInvariants.ENABLED ? LoopInvariants.enclosing(this) : null;
+		return invariants == null ? rewritten : invariants.hoist(rewritten, this);
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -208,7 +324,11 @@ abstract public class BaseExecutor implements Executor {
 				// we need to find the description that has the most parameters for this method
 				// the methods with the same name are assumed to be overloaded versions of one another!
 				// depending on the variable calculation, it is possible that fewer parameters are sent along
+				// only the providers that depend on the current scope have to be checked one by one, the rest is indexed
 				for (MethodProvider provider : operationProvider.getMethodProviders()) {
+					if (GlueOperationProvider.isIndexable(provider)) {
+						continue;
+					}
 					for (MethodDescription possibleDescription : provider.getAvailableMethods()) {
 						if (possibleDescription.getName().equals(fullName) || (possibleDescription.getNamespace() != null && fullName.equals(possibleDescription.getNamespace() + "." + possibleDescription.getName()))) {
 							if (description == null || possibleDescription.getParameters().size() > description.getParameters().size()) {
@@ -220,6 +340,13 @@ abstract public class BaseExecutor implements Executor {
 						}
 					}
 				}
+				IndexedMethod indexed = operationProvider.getIndexedMethod(fullName);
+				if (indexed != null) {
+					if (description == null || indexed.getDescription().getParameters().size() > description.getParameters().size()) {
+						description = indexed.getDescription();
+					}
+					minimumAmountOfParameters = Math.min(minimumAmountOfParameters, indexed.getMinimumAmountOfParameters());
+				}
 			}
 			else {
 				minimumAmountOfParameters = description.getParameters().size() - 1;
@@ -323,7 +450,8 @@ abstract public class BaseExecutor implements Executor {
 			}
 		}
 		clone.finish();
-		return clone;
+		// operations that only work on literals can be calculated once
+		return ConstantFolder.fold(clone);
 	}
 	
 }
@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import be.nabu.glue.OptionalTypeProviderFactory;
 import be.nabu.glue.api.AssignmentExecutor;
@@ -42,6 +43,7 @@ import be.nabu.glue.core.impl.GlueUtils;
 import be.nabu.glue.core.impl.MultipleOptionalTypeProvider;
 import be.nabu.glue.core.impl.StructureTypeProvider;
 import be.nabu.glue.core.impl.methods.ScriptMethods;
+import be.nabu.glue.core.impl.operations.OperationCompiler;
 import be.nabu.glue.core.impl.parsers.GlueParserProvider;
 import be.nabu.glue.impl.TransactionalCloseable;
 import be.nabu.glue.utils.ScriptRuntime;
@@ -62,7 +64,8 @@ public class EvaluateExecutor extends BaseExecutor implements AssignmentExecutor
 	public static String DEFAULT_VARIABLE_NAME_PARAMETER = "defaultVariableName";
 	
 	private String variableName;
-	private Operation<ExecutionContext> operation, rewrittenOperation, variableAccessOperation, indexAccessOperation;
+	private Operation<ExecutionContext> operation, variableAccessOperation, indexAccessOperation;
+	private volatile Operation<ExecutionContext> rewrittenOperation;
 	private boolean overwriteIfExists;
 	private boolean autocastIfOptional = false;
 	private boolean generated = false;
@@ -101,13 +104,35 @@ public class EvaluateExecutor extends BaseExecutor implements AssignmentExecutor
 		if (rewrittenOperation == null) {
 			synchronized(this) {
 				if (rewrittenOperation == null) {
-					rewrittenOperation = rewrite(operation);
+					rewrittenOperation = OperationCompiler.tier(rewrite(operation));
 				}
 			}
 		}
 		return rewrittenOperation;
 	}
 
+	@Override
+	public void link(Set<String> variables) {
+		super.link(variables);
+		if (allowNamedParameters && rewrittenOperation == null && operation != null && isLinkable(operation, variables)) {
+			try {
+				getRewrittenOperation();
+			}
+			catch (ParseException e) {
+				// the error is reported when the executor is run
+			}
+		}
+	}
+
+	@Override
+	public void collectVariables(Set<String> variables) {
+		super.collectVariables(variables);
+		if (operation != null) {
+			collectVariables(operation, variables);
+		}
+		variables.add(variableName);
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public void execute(ExecutionContext context) throws ExecutionException {
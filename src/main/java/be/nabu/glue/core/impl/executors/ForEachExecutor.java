@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import be.nabu.glue.api.ExecutionContext;
 import be.nabu.glue.api.ExecutionException;
@@ -29,16 +30,19 @@ import be.nabu.glue.api.Executor;
 import be.nabu.glue.api.ExecutorContext;
 import be.nabu.glue.api.ExecutorGroup;
 import be.nabu.glue.core.impl.GlueUtils;
+import be.nabu.glue.core.impl.operations.OperationCompiler;
 import be.nabu.glue.utils.ScriptRuntime;
 import be.nabu.libs.evaluator.EvaluationException;
 import be.nabu.libs.evaluator.api.Operation;
 
 public class ForEachExecutor extends SequenceExecutor {
 
-	private Operation<ExecutionContext> forEach, rewritten;
+	private Operation<ExecutionContext> forEach;
+	private volatile Operation<ExecutionContext> rewritten;
 	private String temporaryVariable;
 	private String temporaryIndex;
 	private boolean allowVariableReuse = true, allowNonCollectionIteration = true;
+	private volatile LoopInvariants invariants;
 
 	public ForEachExecutor(ExecutorGroup parent, ExecutorContext context, Operation<ExecutionContext> condition, Operation<ExecutionContext> forEach, String temporaryVariable, String temporaryIndex, Executor...steps) {
 		super(parent, context, condition, steps);
@@ -52,19 +56,45 @@ public class ForEachExecutor extends SequenceExecutor {
 		if (rewritten == null) {
 			synchronized(this) {
 				if (rewritten == null) {
-					rewritten = rewrite(forEach);
+					rewritten = OperationCompiler.tier(rewrite(forEach));
 				}
 			}
 		}
 		return rewritten;
 	}
 	
+	@Override
+	public void link(Set<String> variables) {
+		super.link(variables);
+		if (forEach != null && rewritten == null && isLinkable(forEach, variables)) {
+			try {
+				getRewrittenForEach();
+			}
+			catch (ParseException e) {
+				// the error is reported when the executor is run
+			}
+		}
+	}
+	
+	@Override
+	public void collectVariables(Set<String> variables) {
+		super.collectVariables(variables);
+		if (forEach != null) {
+			collectVariables(forEach, variables);
+		}
+		variables.add(temporaryVariable);
+		variables.add(temporaryIndex);
+	}
+	
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public void execute(ExecutionContext context) throws ExecutionException {
 		try {
 			Object original = getRewrittenForEach().evaluate(context);
 			if (original != null) {
+				if (LoopInvariants.ENABLED) {
+					getInvariants().start();
+				}
 				Iterable elements;
 				if (original instanceof Iterable) {
 					elements = GlueUtils.resolve((Iterable) original);
@@ -122,6 +152,17 @@ public class ForEachExecutor extends SequenceExecutor {
 		}
 	}
 
+	LoopInvariants getInvariants() {
+		if (invariants == null) {
+			synchronized(this) {
+				if (invariants == null) {
+					invariants = new LoopInvariants(this, temporaryVariable, temporaryIndex);
+				}
+			}
+		}
+		return invariants;
+	}
+
 	public Operation<ExecutionContext> getForEach() {
 		return forEach;
 	}
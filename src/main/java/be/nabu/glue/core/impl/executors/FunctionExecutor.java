@@ -39,6 +39,7 @@ import be.nabu.glue.api.Parser;
 import be.nabu.glue.api.Script;
 import be.nabu.glue.api.ScriptRepository;
 import be.nabu.glue.core.api.Lambda;
+import be.nabu.glue.core.impl.ClosureMap;
 import be.nabu.glue.core.impl.LambdaImpl;
 import be.nabu.glue.impl.SimpleMethodDescription;
 import be.nabu.glue.impl.SimpleParameterDescription;
@@ -93,7 +94,7 @@ public class FunctionExecutor extends BaseExecutor implements AssignmentExecutor
 		try {
 			Object object = context.getPipeline().get(variableName);
 			if (overwriteIfExists || object == null) {
-				Map<String, Object> captured = useActualPipeline ? context.getPipeline() : new HashMap<String, Object>(context.getPipeline());
+				Map<String, Object> captured = useActualPipeline ? context.getPipeline() : ClosureMap.capture(context.getPipeline());
 				Lambda lambda = new LambdaImpl(
 					// @2024-12-13: in the past we added the hashCode() to the variablename to ensure uniqueness
 					// however it does not appear to be necessary because we don't actually register the name anywhere so it doesn't have to be unique?
@@ -0,0 +1,331 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl.executors;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import be.nabu.glue.api.AssignmentExecutor;
+import be.nabu.glue.api.ExecutionContext;
+import be.nabu.glue.api.Executor;
+import be.nabu.glue.api.ExecutorGroup;
+import be.nabu.glue.core.api.Pure;
+import be.nabu.glue.core.impl.SlotLayout;
+import be.nabu.glue.core.impl.providers.DynamicMethodOperation;
+import be.nabu.glue.core.impl.providers.StaticMethodOperation;
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.BaseOperation;
+import be.nabu.libs.evaluator.impl.ClassicOperation;
+
+/**
+ * Finds the calls in a loop body that give the same result in every iteration: calls to {@link Pure} methods whose arguments are literals or variables that are never assigned in the loop.
+ * Such a call is only calculated once per run of the loop and the result is reused by all the iterations.
+ * Only immutable results are reused and only if the variables it reads contained immutable values, otherwise the body could see changes made in a previous iteration.
+ */
+class LoopInvariants {
+
+	public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("glue.hoist", "false"));
+	private static final boolean TRACE = Boolean.parseBoolean(System.getProperty("glue.hoist.trace", "false"));
+
+	private SequenceExecutor loop;
+	private List<String> loopVariables;
+	private volatile Set<String> written;
+	private List<HoistedOperation> hoisted = new CopyOnWriteArrayList<HoistedOperation>();
+
+	LoopInvariants(SequenceExecutor loop, String...loopVariables) {
+		this.loop = loop;
+		this.loopVariables = new ArrayList<String>();
+		for (String loopVariable : loopVariables) {
+			if (loopVariable != null) {
+				this.loopVariables.add(loopVariable);
+			}
+		}
+	}
+
+	/**
+	 * Returns the invariants of the innermost loop the executor runs in, the body of a function is run in its own context so it stops there
+	 */
+	static LoopInvariants enclosing(Executor executor) {
+		ExecutorGroup parent = executor.getParent();
+		while (parent != null && !(parent instanceof FunctionExecutor)) {
+			if (parent instanceof ForEachExecutor) {
+				return ((ForEachExecutor) parent).getInvariants();
+			}
+			else if (parent instanceof WhileExecutor) {
+				return ((WhileExecutor) parent).getInvariants();
+			}
+			parent = parent.getParent();
+		}
+		return null;
+	}
+
+	/**
+	 * Must be called every time the loop starts, values calculated in a previous run are no longer valid
+	 */
+	void start() {
+		for (HoistedOperation operation : hoisted) {
+			operation.reset();
+		}
+	}
+
+	/**
+	 * Replaces the largest invariant parts of the operation, returns the original if there is nothing to hoist
+	 */
+	@SuppressWarnings("unchecked")
+	Operation<ExecutionContext> hoist(Operation<ExecutionContext> operation, BaseExecutor executor) throws ParseException {
+		if (operation == null) {
+			return null;
+		}
+		List<String> reads = new ArrayList<String>();
+		if (isInvariant(operation, reads)) {
+			if (!(operation instanceof DynamicMethodOperation) && !containsCall(operation)) {
+				return operation;
+			}
+			HoistedOperation hoistedOperation = new HoistedOperation(operation, reads);
+			hoisted.add(hoistedOperation);
+			if (TRACE) {
+				System.err.println("Hoisted out of loop at line " + (executor.getContext() == null ? -1 : executor.getContext().getLineNumber() + 1) + ": " + operation);
+			}
+			return hoistedOperation;
+		}
+		// only the operators and calls are rebuilt, other operations keep their original children
+		if (!(operation instanceof DynamicMethodOperation) && !(operation instanceof ClassicOperation)) {
+			return operation;
+		}
+		List<QueryPart> parts = new ArrayList<QueryPart>();
+		boolean changed = false;
+		for (QueryPart part : operation.getParts()) {
+			if (part.getContent() instanceof Operation) {
+				Operation<ExecutionContext> child = hoist((Operation<ExecutionContext>) part.getContent(), executor);
+				changed |= child != part.getContent();
+				parts.add(new QueryPart(part.getType(), child));
+			}
+			else {
+				parts.add(part);
+			}
+		}
+		if (!changed) {
+			return operation;
+		}
+		Operation<ExecutionContext> clone = ((OperationProvider<ExecutionContext>) executor.getOperationProvider()).newOperation(operation.getType());
+		for (QueryPart part : parts) {
+			clone.add(part);
+		}
+		clone.finish();
+		return clone;
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean isInvariant(Operation<ExecutionContext> operation, List<String> reads) {
+		if (operation.getType() == OperationType.NATIVE) {
+			return operation.getParts().size() == 1 && !(operation.getParts().get(0).getContent() instanceof Operation);
+		}
+		else if (operation.getType() == OperationType.VARIABLE) {
+			String name = SlotLayout.getLocalName(operation);
+			// variables starting with a $ are set by the runtime
+			if (name == null || name.startsWith("$") || getWritten().contains(name)) {
+				return false;
+			}
+			reads.add(name);
+			return true;
+		}
+		else if (operation instanceof DynamicMethodOperation) {
+			Operation<ExecutionContext> resolved = ((DynamicMethodOperation) operation).getResolvedOperation();
+			if (!(resolved instanceof StaticMethodOperation) || ((StaticMethodOperation) resolved).getInvoker().getMethod().getAnnotation(Pure.class) == null) {
+				return false;
+			}
+			for (int i = 1; i < operation.getParts().size(); i++) {
+				Object content = operation.getParts().get(i).getContent();
+				if (content instanceof Operation && !isInvariant((Operation<ExecutionContext>) content, reads)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		else if (operation instanceof ClassicOperation) {
+			for (QueryPart part : operation.getParts()) {
+				if (part.getType() == Type.VARIABLE || part.getType() == Type.NAMING) {
+					return false;
+				}
+				else if (part.getContent() instanceof Operation && !isInvariant((Operation<ExecutionContext>) part.getContent(), reads)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean containsCall(Operation<?> operation) {
+		for (QueryPart part : operation.getParts()) {
+			if (part.getContent() instanceof DynamicMethodOperation || (part.getContent() instanceof Operation && containsCall((Operation<?>) part.getContent()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The variables that can change while the loop runs, this is only calculated when the first operation is hoisted because by then the loop is fully parsed
+	 */
+	private Set<String> getWritten() {
+		if (written == null) {
+			synchronized(this) {
+				if (written == null) {
+					Set<String> written = new HashSet<String>(loopVariables);
+					collectWritten(loop, written);
+					this.written = written;
+				}
+			}
+		}
+		return written;
+	}
+
+	private static void collectWritten(ExecutorGroup group, Set<String> written) {
+		for (Executor child : group.getChildren()) {
+			if (child instanceof AssignmentExecutor && ((AssignmentExecutor) child).getVariableName() != null) {
+				written.add(((AssignmentExecutor) child).getVariableName());
+			}
+			if (child instanceof ForEachExecutor) {
+				written.add(((ForEachExecutor) child).getTemporaryVariable());
+				written.add(((ForEachExecutor) child).getTemporaryIndex());
+			}
+			else if (child instanceof SwitchExecutor) {
+				written.add(((SwitchExecutor) child).getVariableName());
+			}
+			// the body of a function runs in its own context
+			if (child instanceof ExecutorGroup && !(child instanceof FunctionExecutor)) {
+				collectWritten((ExecutorGroup) child, written);
+			}
+		}
+	}
+
+	private static boolean isImmutable(Object value) {
+		return value == null || value instanceof String || value instanceof Boolean || value instanceof Character || value instanceof Long || value instanceof Integer
+			|| value instanceof Short || value instanceof Byte || value instanceof Double || value instanceof Float || value instanceof BigDecimal || value instanceof BigInteger;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static class HoistedOperation extends BaseOperation {
+
+		private Operation<ExecutionContext> operation;
+		private List<String> reads;
+		private volatile Calculated calculated;
+
+		@SuppressWarnings("unchecked")
+		public HoistedOperation(Operation<ExecutionContext> operation, List<String> reads) {
+			this.operation = operation;
+			this.reads = reads;
+			for (QueryPart part : operation.getParts()) {
+				add(part);
+			}
+		}
+
+		public void reset() {
+			calculated = null;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Object evaluate(Object context) throws EvaluationException {
+			Calculated calculated = this.calculated;
+			if (calculated != null && calculated.context == context && isCurrent(calculated, (ExecutionContext) context)) {
+				return calculated.value;
+			}
+			Object [] values = getReads(context);
+			Object value = ((Operation) operation).evaluate(context);
+			if (values != null && isImmutable(value)) {
+				this.calculated = new Calculated(context, values, value);
+			}
+			return value;
+		}
+
+		// the values are immutable so a variable that still holds the same instance gives the same result
+		private boolean isCurrent(Calculated calculated, ExecutionContext context) {
+			Map<String, Object> pipeline = context.getPipeline();
+			for (int i = 0; i < calculated.values.length; i++) {
+				if (pipeline.get(reads.get(i)) != calculated.values[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the values of the variables that are read or null if the result can not be reused
+		 */
+		private Object[] getReads(Object context) {
+			if (!(context instanceof ExecutionContext)) {
+				return null;
+			}
+			// statements without a variable can write to a variable configured in the environment
+			if (((ExecutionContext) context).getExecutionEnvironment().getParameters().get(EvaluateExecutor.DEFAULT_VARIABLE_NAME_PARAMETER) != null) {
+				return null;
+			}
+			Map<String, Object> pipeline = ((ExecutionContext) context).getPipeline();
+			Object [] values = new Object[reads.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = pipeline.get(reads.get(i));
+				if (!isImmutable(values[i])) {
+					return null;
+				}
+			}
+			return values;
+		}
+
+		@Override
+		public void finish() throws ParseException {
+			// do nothing
+		}
+
+		@Override
+		public OperationType getType() {
+			return operation.getType();
+		}
+
+		@Override
+		public String toString() {
+			return operation.toString();
+		}
+	}
+
+	private static class Calculated {
+		private Object context;
+		// the values of the variables that were read, the pipeline can still be changed by code we don't see (e.g. a called lambda)
+		private Object [] values;
+		private Object value;
+
+		public Calculated(Object context, Object [] values, Object value) {
+			this.context = context;
+			this.values = values;
+			this.value = value;
+		}
+	}
+}
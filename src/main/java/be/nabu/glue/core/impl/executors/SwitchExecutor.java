@@ -20,6 +20,7 @@ package be.nabu.glue.core.impl.executors;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import be.nabu.glue.api.ExecutionContext;
 import be.nabu.glue.api.ExecutionException;
@@ -32,7 +33,8 @@ import be.nabu.libs.evaluator.api.Operation;
 public class SwitchExecutor extends BaseExecutor implements ExecutorGroup {
 
 	private List<Executor> children = new ArrayList<Executor>();
-	private Operation<ExecutionContext> toMatch, rewritten;
+	private Operation<ExecutionContext> toMatch;
+	private volatile Operation<ExecutionContext> rewritten;
 	private String variableName;
 	private boolean isIf;
 	
@@ -59,6 +61,28 @@ public class SwitchExecutor extends BaseExecutor implements ExecutorGroup {
 		return rewritten;
 	}
 
+	@Override
+	public void link(Set<String> variables) {
+		super.link(variables);
+		if (toMatch != null && rewritten == null && isLinkable(toMatch, variables)) {
+			try {
+				getRewrittenToMatch();
+			}
+			catch (ExecutionException e) {
+				// the error is reported when the executor is run
+			}
+		}
+	}
+
+	@Override
+	public void collectVariables(Set<String> variables) {
+		super.collectVariables(variables);
+		if (toMatch != null) {
+			collectVariables(toMatch, variables);
+		}
+		variables.add(variableName);
+	}
+
 	@Override
 	public void execute(ExecutionContext context) throws ExecutionException {
 		try {
@@ -18,12 +18,14 @@
 package be.nabu.glue.core.impl.executors;
 
 import java.text.ParseException;
+import java.util.Set;
 
 import be.nabu.glue.api.ExecutionContext;
 import be.nabu.glue.api.ExecutionException;
 import be.nabu.glue.api.Executor;
 import be.nabu.glue.api.ExecutorContext;
 import be.nabu.glue.api.ExecutorGroup;
+import be.nabu.glue.core.impl.operations.OperationCompiler;
 import be.nabu.glue.utils.ScriptRuntime;
 import be.nabu.libs.converter.ConverterFactory;
 import be.nabu.libs.converter.api.Converter;
@@ -32,7 +34,9 @@ import be.nabu.libs.evaluator.api.Operation;
 
 public class WhileExecutor extends SequenceExecutor {
 
-	private Operation<ExecutionContext> whileOperation, rewritten;
+	private Operation<ExecutionContext> whileOperation;
+	private volatile Operation<ExecutionContext> rewritten;
+	private volatile LoopInvariants invariants;
 	private Converter converter = ConverterFactory.getInstance().getConverter();
 
 	public WhileExecutor(ExecutorGroup parent, ExecutorContext context, Operation<ExecutionContext> condition, Operation<ExecutionContext> whileOperation, Executor...children) {
@@ -46,7 +50,12 @@ public class WhileExecutor extends SequenceExecutor {
 			synchronized(this) {
 				if (rewritten == null) {
 					try {
-						rewritten = rewrite(whileOperation);
+						Operation<ExecutionContext> operation = rewrite(whileOperation);
+						// the condition is evaluated for every iteration so it benefits from the invariants of this loop
+						if (LoopInvariants.ENABLED) {
+							operation = getInvariants().hoist(operation, this);
+						}
+						rewritten = OperationCompiler.tier(operation);
 					}
 					catch (ParseException e) {
 						throw new ExecutionException(e);
@@ -57,7 +66,31 @@ public class WhileExecutor extends SequenceExecutor {
 		return rewritten;
 	}
 	
+	@Override
+	public void link(Set<String> variables) {
+		super.link(variables);
+		if (whileOperation != null && rewritten == null && isLinkable(whileOperation, variables)) {
+			try {
+				getRewrittenWhile();
+			}
+			catch (ExecutionException e) {
+				// the error is reported when the executor is run
+			}
+		}
+	}
+	
+	@Override
+	public void collectVariables(Set<String> variables) {
+		super.collectVariables(variables);
+		if (whileOperation != null) {
+			collectVariables(whileOperation, variables);
+		}
+	}
+	
 	public void execute(ExecutionContext context) throws ExecutionException {
+		if (LoopInvariants.ENABLED) {
+			getInvariants().start();
+		}
 		try {
 			Boolean result = converter.convert(getRewrittenWhile().evaluate(context), Boolean.class);
 			while (result != null && result && !ScriptRuntime.getRuntime().isAborted()) {
@@ -75,6 +108,17 @@ public class WhileExecutor extends SequenceExecutor {
 		}
 	}
 	
+	LoopInvariants getInvariants() {
+		if (invariants == null) {
+			synchronized(this) {
+				if (invariants == null) {
+					invariants = new LoopInvariants(this);
+				}
+			}
+		}
+		return invariants;
+	}
+
 	public Operation<ExecutionContext> getWhile() {
 		return whileOperation;
 	}
@@ -0,0 +1,413 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl.methods.v2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import be.nabu.glue.core.api.CollectionIterable;
+import be.nabu.glue.core.api.Lambda;
+import be.nabu.glue.core.impl.GlueUtils;
+import be.nabu.glue.core.impl.SpillFile;
+import be.nabu.glue.utils.ScriptRuntime;
+import be.nabu.libs.evaluator.EvaluationException;
+
+/**
+ * Sorting and deduplicating series that do not fit in memory.
+ * Series are read in batches of {@link #THRESHOLD} elements, as long as everything fits in a single batch the regular in memory implementation is used.
+ * Larger series are written to temporary files and the result is a lazy series that streams back from those files, the files are removed once the result is no longer used.
+ * This only works for elements (and keys) that can be serialized, once other elements are encountered everything that was written is read back and the rest happens in memory.
+ */
+class ExternalSeries {
+
+	static final int THRESHOLD = Integer.parseInt(System.getProperty("glue.spill.threshold", "1000000"));
+	private static final int PARTITIONS = Integer.parseInt(System.getProperty("glue.spill.partitions", "16"));
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	static final Comparator NATURAL = new Comparator() {
+		@Override
+		public int compare(Object o1, Object o2) {
+			return ((Comparable) o1).compareTo(o2);
+		}
+	};
+
+	// the elements of a sort by key are stored as a key/element pair
+	@SuppressWarnings("rawtypes")
+	private static final Comparator KEYED = new Comparator() {
+		@Override
+		public int compare(Object o1, Object o2) {
+			return SeriesMethods.compareKeys(((Object[]) o1)[0], ((Object[]) o2)[0]);
+		}
+	};
+
+	/**
+	 * Compares with a lambda, the sorted runs are only merged while the result is iterated so every iteration uses its own fork of the runtime
+	 */
+	@SuppressWarnings("rawtypes")
+	static class LambdaComparator implements Comparator {
+		private Lambda lambda;
+		private ScriptRuntime runtime;
+
+		LambdaComparator(Lambda lambda, ScriptRuntime runtime) {
+			this.lambda = lambda;
+			this.runtime = runtime;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public int compare(Object o1, Object o2) {
+			List parameters = new ArrayList();
+			parameters.add(o1);
+			parameters.add(o2);
+			return GlueUtils.convert(GlueUtils.calculate(lambda, runtime, parameters), Integer.class);
+		}
+
+		LambdaComparator fork() {
+			return new LambdaComparator(lambda, runtime.fork(true));
+		}
+	}
+
+	/**
+	 * Reads the next batch of elements, they are not resolved yet
+	 */
+	static List<Object> read(Iterator<?> iterator) {
+		List<Object> batch = new ArrayList<Object>();
+		while (batch.size() < THRESHOLD && iterator.hasNext()) {
+			batch.add(iterator.next());
+		}
+		return batch;
+	}
+
+	/**
+	 * Sorts the resolved first batch and the remaining elements in sorted runs on disk, either with the comparator or on the key calculated by the lambda.
+	 * Returns null if not all the elements or keys can be written to disk, in that case every element is read back and the resolved list holds the full series to be sorted in memory.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Iterable<?> sort(List<Object> resolved, Iterator<?> iterator, Comparator comparator, Lambda keyLambda) throws EvaluationException {
+		SortedRuns result = new SortedRuns(keyLambda == null ? comparator : KEYED, keyLambda != null);
+		List<Object> batch = resolved;
+		try {
+			while (true) {
+				Object [] keys = null;
+				if (isSpillable(batch) && keyLambda != null) {
+					keys = SeriesMethods.calculateKeys(keyLambda, batch);
+				}
+				if (!isSpillable(batch) || (keys != null && !isSpillable(Arrays.asList(keys)))) {
+					// each run is sorted on its own and they are in the original order so a stable sort of everything still keeps equal elements in order
+					List<Object> elements = new ArrayList<Object>();
+					for (SpillFile run : result.runs) {
+						SpillFile.Reader reader = run.read();
+						try {
+							while (reader.hasNext()) {
+								Object object = reader.next();
+								elements.add(keyLambda != null ? ((Object[]) object)[1] : object);
+							}
+						}
+						finally {
+							reader.close();
+						}
+						run.close();
+					}
+					elements.addAll(batch);
+					elements.addAll(SeriesMethods.resolve(drain(iterator)));
+					resolved.clear();
+					resolved.addAll(elements);
+					return null;
+				}
+				if (keys != null) {
+					for (int i = 0; i < keys.length; i++) {
+						batch.set(i, new Object[] { keys[i], batch.get(i) });
+					}
+				}
+				Collections.sort(batch, result.comparator);
+				SpillFile run = new SpillFile(result);
+				result.runs.add(run);
+				for (Object object : batch) {
+					run.write(object);
+				}
+				if (!iterator.hasNext()) {
+					break;
+				}
+				batch = new ArrayList<Object>(SeriesMethods.resolve(read(iterator)));
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not sort the series on disk", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Removes the duplicates while keeping the order in which the elements first occur.
+	 * As long as there are no more than {@link #THRESHOLD} distinct elements this happens in memory, afterwards the elements are divided over partitions on disk based on their hash.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Object unique(Iterator<?> iterator) {
+		// the distinct elements and the position where they first occurred
+		Map<Object, Long> seen = new LinkedHashMap<Object, Long>();
+		boolean spillable = true;
+		UniqueSeries result = new UniqueSeries();
+		SpillFile [] partitions = null;
+		long index = 0;
+		try {
+			while (iterator.hasNext()) {
+				for (Object element : SeriesMethods.resolve(read(iterator))) {
+					if (partitions != null && !SpillFile.isSpillable(element)) {
+						seen = restore(partitions);
+						partitions = null;
+						spillable = false;
+					}
+					if (partitions == null) {
+						if (!seen.containsKey(element)) {
+							seen.put(element, index);
+							if (spillable && seen.size() > THRESHOLD) {
+								spillable = isSpillable(seen.keySet());
+								if (spillable) {
+									partitions = new SpillFile[PARTITIONS];
+									for (Map.Entry<Object, Long> entry : seen.entrySet()) {
+										write(partitions, result, entry.getKey(), entry.getValue());
+									}
+									seen = null;
+								}
+							}
+						}
+					}
+					else {
+						write(partitions, result, element, index);
+					}
+					index++;
+				}
+			}
+			if (partitions == null) {
+				return new LinkedHashSet(seen.keySet());
+			}
+			// within a partition the elements are in the order they occurred, we only keep the first occurrence
+			for (int i = 0; i < partitions.length; i++) {
+				if (partitions[i] != null) {
+					Map<Object, Long> firsts = new LinkedHashMap<Object, Long>();
+					SpillFile.Reader reader = partitions[i].read();
+					try {
+						while (reader.hasNext()) {
+							Object [] pair = (Object[]) reader.next();
+							if (!firsts.containsKey(pair[1])) {
+								firsts.put(pair[1], (Long) pair[0]);
+							}
+						}
+					}
+					finally {
+						reader.close();
+					}
+					partitions[i].close();
+					SpillFile survivors = new SpillFile(result);
+					for (Map.Entry<Object, Long> entry : firsts.entrySet()) {
+						survivors.write(new Object[] { entry.getValue(), entry.getKey() });
+					}
+					result.runs.add(survivors);
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not remove the duplicates on disk", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the partitions back in memory, in the order in which the elements first occurred
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<Object, Long> restore(SpillFile [] partitions) throws IOException {
+		List<Object> pairs = new ArrayList<Object>();
+		for (SpillFile partition : partitions) {
+			if (partition != null) {
+				SpillFile.Reader reader = partition.read();
+				try {
+					while (reader.hasNext()) {
+						pairs.add(reader.next());
+					}
+				}
+				finally {
+					reader.close();
+				}
+				partition.close();
+			}
+		}
+		Collections.sort(pairs, UniqueSeries.INDEX);
+		Map<Object, Long> seen = new LinkedHashMap<Object, Long>();
+		for (Object pair : pairs) {
+			if (!seen.containsKey(((Object[]) pair)[1])) {
+				seen.put(((Object[]) pair)[1], (Long) ((Object[]) pair)[0]);
+			}
+		}
+		return seen;
+	}
+
+	private static void write(SpillFile [] partitions, Object owner, Object element, long index) throws IOException {
+		int partition = ((element == null ? 0 : element.hashCode()) & Integer.MAX_VALUE) % partitions.length;
+		if (partitions[partition] == null) {
+			partitions[partition] = new SpillFile(owner);
+		}
+		partitions[partition].write(new Object[] { index, element });
+	}
+
+	private static boolean isSpillable(Iterable<?> elements) {
+		for (Object element : elements) {
+			if (!SpillFile.isSpillable(element)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static List<Object> drain(Iterator<?> iterator) {
+		List<Object> list = new ArrayList<Object>();
+		while (iterator.hasNext()) {
+			list.add(iterator.next());
+		}
+		return list;
+	}
+
+	/**
+	 * Merges a number of files that are each sorted on their own
+	 */
+	@SuppressWarnings("rawtypes")
+	private static class SortedRuns implements CollectionIterable<Object> {
+		private List<SpillFile> runs = new ArrayList<SpillFile>();
+		private Comparator comparator;
+		private boolean keyed;
+
+		public SortedRuns(Comparator comparator, boolean keyed) {
+			this.comparator = comparator;
+			this.keyed = keyed;
+		}
+
+		@Override
+		public Iterator<Object> iterator() {
+			return new MergeIterator(runs, comparator instanceof LambdaComparator ? ((LambdaComparator) comparator).fork() : comparator, keyed);
+		}
+	}
+
+	/**
+	 * The partitions without duplicates, each is sorted on the position where the element first occurred
+	 */
+	private static class UniqueSeries extends SortedRuns {
+		@SuppressWarnings("rawtypes")
+		private static final Comparator INDEX = new Comparator() {
+			@Override
+			public int compare(Object o1, Object o2) {
+				return ((Long) ((Object[]) o1)[0]).compareTo((Long) ((Object[]) o2)[0]);
+			}
+		};
+
+		public UniqueSeries() {
+			super(INDEX, true);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static class MergeIterator implements Iterator<Object> {
+		private PriorityQueue<Head> queue;
+		private Comparator comparator;
+		private boolean keyed;
+
+		@SuppressWarnings("unchecked")
+		public MergeIterator(List<SpillFile> runs, Comparator comparator, boolean keyed) {
+			this.comparator = comparator;
+			this.keyed = keyed;
+			this.queue = new PriorityQueue<Head>(Math.max(1, runs.size()));
+			try {
+				for (int i = 0; i < runs.size(); i++) {
+					Head head = new Head(i, runs.get(i).read());
+					if (head.advance()) {
+						queue.add(head);
+					}
+				}
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Could not read the sorted runs", e);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public Object next() {
+			if (queue.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			Head head = queue.poll();
+			Object value = head.value;
+			try {
+				if (head.advance()) {
+					queue.add(head);
+				}
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Could not read the sorted runs", e);
+			}
+			// pairs store the actual element last
+			return keyed ? ((Object[]) value)[1] : value;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private class Head implements Comparable<Head> {
+			private int run;
+			private SpillFile.Reader reader;
+			private Object value;
+
+			public Head(int run, SpillFile.Reader reader) {
+				this.run = run;
+				this.reader = reader;
+			}
+
+			public boolean advance() throws IOException {
+				if (reader.hasNext()) {
+					value = reader.next();
+					return true;
+				}
+				reader.close();
+				return false;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public int compareTo(Head other) {
+				int result = comparator.compare(value, other.value);
+				// the runs are in the original order so this keeps the sort stable
+				return result == 0 ? Integer.compare(run, other.run) : result;
+			}
+		}
+	}
+}
@@ -25,6 +25,7 @@ import java.text.DecimalFormat;
 
 import be.nabu.glue.annotations.GlueMethod;
 import be.nabu.glue.annotations.GlueParam;
+import be.nabu.glue.core.api.Pure;
 import be.nabu.glue.core.impl.GlueUtils;
 import be.nabu.glue.core.impl.GlueUtils.ObjectHandler;
 import be.nabu.libs.evaluator.annotations.MethodProviderClass;
@@ -47,6 +48,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the absolute value of the given number", version = 2)
+	@Pure
 	public static Object abs(Object...original) {
 		return GlueUtils.wrap(new ObjectHandler() {
 			@Override
@@ -69,6 +71,7 @@ public class MathMethods {
 	}
 
 	@GlueMethod(description = "Returns the cosine of the given number", version = 2)
+	@Pure
 	public static Object cos(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -79,6 +82,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the hyperbolic cosine of the given number", version = 2)
+	@Pure
 	public static Object cosh(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -89,6 +93,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the sine of the given number", version = 2)
+	@Pure
 	public static Object sin(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -99,6 +104,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the hyperbolic sine of the given number", version = 2)
+	@Pure
 	public static Object sinh(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -109,6 +115,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the trigonometric tangent of the given number", version = 2)
+	@Pure
 	public static Object tan(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -119,6 +126,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the hyperbolic tangent of the given number", version = 2)
+	@Pure
 	public static Object tanh(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -129,6 +137,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the arc cosine of the given number", version = 2)
+	@Pure
 	public static Object acos(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -139,6 +148,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the arc sine of the given number", version = 2)
+	@Pure
 	public static Object asin(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -149,6 +159,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the arc tangent of the given number", version = 2)
+	@Pure
 	public static Object atan(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -159,11 +170,13 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the angle theta from the conversion of rectangular coordinates (x, y) to polar coordinates (r, theta)", version = 2)
+	@Pure
 	public static Object atan2(@GlueParam(name = "y") Object y, @GlueParam(name = "x") Object x) {
 		return Math.atan2(GlueUtils.convert(y, Double.class), GlueUtils.convert(x, Double.class));
 	}
 	
 	@GlueMethod(description = "Returns the cube root of the given number", version = 2)
+	@Pure
 	public static Object cbrt(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -174,6 +187,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the ceil value of the given number", version = 2)
+	@Pure
 	public static Object ceil(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -184,6 +198,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the floor value of the given number", version = 2)
+	@Pure
 	public static Object floor(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -194,11 +209,13 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the angle theta from the conversion of rectangular coordinates (x, y) to polar coordinates (r, theta)", version = 2)
+	@Pure
 	public static Object hypot(@GlueParam(name = "x") Object x, @GlueParam(name = "y") Object y) {
 		return Math.hypot(GlueUtils.convert(x, Double.class), GlueUtils.convert(y, Double.class));
 	}
 	
 	@GlueMethod(description = "Returns the natural logarithm (base e) of the given number", version = 2)
+	@Pure
 	public static Object log(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -209,6 +226,7 @@ public class MathMethods {
 	}
 
 	@GlueMethod(description = "Returns the base 10 logarithm of the given number", version = 2)
+	@Pure
 	public static Object log10(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -224,6 +242,7 @@ public class MathMethods {
 	}
 	
 	@GlueMethod(description = "Returns the square root of the given number", version = 2)
+	@Pure
 	public static Object sqrt(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -17,31 +17,34 @@
 
 package be.nabu.glue.core.impl.methods.v2;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
-import java.util.concurrent.TimeUnit;
 
 import be.nabu.glue.annotations.GlueMethod;
 import be.nabu.glue.annotations.GlueParam;
 import be.nabu.glue.api.ExecutionContext;
 import be.nabu.glue.core.api.CollectionIterable;
-import be.nabu.glue.core.api.EnclosedLambda;
+import be.nabu.glue.core.api.ForkedCallable;
 import be.nabu.glue.core.api.Lambda;
+import be.nabu.glue.core.impl.ChunkedResolver;
 import be.nabu.glue.core.impl.GlueUtils;
 import be.nabu.glue.core.impl.LambdaMethodProvider.LambdaExecutionOperation;
+import be.nabu.glue.core.impl.MemoizedSeries;
+import be.nabu.glue.core.impl.ParallelPool;
 import be.nabu.glue.core.impl.methods.v2.generators.LambdaSeriesGenerator;
 import be.nabu.glue.core.impl.methods.v2.generators.LongGenerator;
 import be.nabu.glue.core.impl.methods.v2.generators.StringGenerator;
@@ -51,6 +54,10 @@ import be.nabu.libs.evaluator.annotations.MethodProviderClass;
 
 @MethodProviderClass(namespace = "series")
 public class SeriesMethods {
+	
+	private static final int PARALLEL_SORT_THRESHOLD = Integer.parseInt(System.getProperty("glue.sort.parallelThreshold", "10000"));
+	private static final int PARALLEL_GROUP_THRESHOLD = Integer.parseInt(System.getProperty("glue.group.parallelThreshold", "10000"));
+	
 	// small retrofits were done to support modifying the list, like wrapping an array list around the arrays.aslist...
 	@GlueMethod(returns = "series", description = "This method creates a series out of a number of objects", version = 2)
 	public static Iterable<?> series(@GlueParam(name = "content", description = "The objects to put in the series") Object...objects) {
@@ -61,7 +68,11 @@ public class SeriesMethods {
 	@GlueMethod(version = 2)
 	public static Object unique(Object...objects) {
 		Iterable<?> series = GlueUtils.toSeries(objects);
-		return new LinkedHashSet(resolve(series));
+		// series that are already in memory can be handled in memory
+		if (series instanceof Collection && ((Collection) series).size() <= ExternalSeries.THRESHOLD) {
+			return new LinkedHashSet(resolve(series));
+		}
+		return ExternalSeries.unique(series.iterator());
 	}
 	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
@@ -70,16 +81,16 @@ public class SeriesMethods {
 		if (objects == null || objects.length == 0) {
 			return null;
 		}
-		Map map = new HashMap();
+		// the groups are returned in the order they are first encountered
+		Map map = new LinkedHashMap();
 		if (lambda.getDescription().getParameters().size() != 1) {
 			throw new IllegalArgumentException("The lambda does not have enough parameters to process the element");
 		}
 		Iterable<?> series = GlueUtils.toSeries(objects);
-		ExecutionContext executionContext = ScriptRuntime.getRuntime().getExecutionContext();
-		for (Object object : resolve(series)) {
-			LambdaExecutionOperation lambdaOperation = new LambdaExecutionOperation(lambda.getDescription(), lambda.getOperation(), 
-				lambda instanceof EnclosedLambda ? ((EnclosedLambda) lambda).getEnclosedContext() : new HashMap<String, Object>());
-			Object key = lambdaOperation.evaluateWithParameters(executionContext, object);
+		List<?> resolved = resolve(series);
+		Object [] keys = calculateKeys(lambda, resolved);
+		for (int i = 0; i < keys.length; i++) {
+			Object key = keys[i];
 			// it is possible to belong to multiple groups, hence the key can either be a single key or a list of keys
 			if (!(key instanceof Iterable)) {
 				key = Arrays.asList(key);
@@ -88,35 +99,313 @@ public class SeriesMethods {
 				if (!map.containsKey(single)) {
 					map.put(single, new ArrayList());
 				}
-				((List) map.get(single)).add(object);
+				((List) map.get(single)).add(resolved.get(i));
 			}
 		}
 		return map;
-	}	
+	}
+	
+	/**
+	 * Large series are split in chunks that each calculate their keys in their own fork of the runtime
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	static Object[] calculateKeys(final Lambda lambda, final List<?> elements) throws EvaluationException {
+		final Object [] keys = new Object[elements.size()];
+		ScriptRuntime runtime = ScriptRuntime.getRuntime();
+		boolean sandboxed = "true".equals(runtime.getExecutionContext().getExecutionEnvironment().getParameters().get("sandboxed"));
+		if (keys.length >= PARALLEL_GROUP_THRESHOLD && !sandboxed && GlueUtils.useParallelism()) {
+			int chunkSize = Math.max(1, keys.length / (ParallelPool.getThreads() * 4));
+			List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+			for (int start = 0; start < keys.length; start += chunkSize) {
+				final int from = start, to = Math.min(keys.length, start + chunkSize);
+				final ScriptRuntime fork = runtime.fork(true);
+				tasks.add(ParallelPool.submit(new Callable() {
+					@Override
+					public Object call() throws Exception {
+						for (int i = from; i < to; i++) {
+							keys[i] = GlueUtils.calculate(lambda, fork, Arrays.asList(elements.get(i)));
+						}
+						return null;
+					}
+				}));
+			}
+			for (ForkJoinTask<?> task : tasks) {
+				try {
+					task.get();
+				}
+				catch (Exception e) {
+					throw new RuntimeException("Could not calculate the keys", e);
+				}
+			}
+		}
+		else {
+			ExecutionContext executionContext = runtime.getExecutionContext();
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = LambdaExecutionOperation.invoke(lambda, executionContext, elements.get(i));
+			}
+		}
+		return keys;
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@GlueMethod(description = "Counts the elements per group without keeping the elements themselves", version = 2)
+	public static Map groupCount(@GlueParam(name = "lambda") Lambda lambda, @GlueParam(name = "series") Object...objects) throws EvaluationException {
+		Map map = new LinkedHashMap();
+		for (Object [] keyed : getStreamingKeys(lambda, objects)) {
+			Long current = (Long) map.get(keyed[0]);
+			map.put(keyed[0], current == null ? 1L : current + 1);
+		}
+		return map;
+	}
+	
+	@SuppressWarnings("rawtypes")
+	@GlueMethod(description = "Sums the elements per group without keeping the elements themselves", version = 2)
+	public static Map groupSum(@GlueParam(name = "lambda") Lambda lambda, @GlueParam(name = "series") Object...objects) throws EvaluationException {
+		return groupSumBy(lambda, null, objects);
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@GlueMethod(description = "Sums the value the second lambda calculates for each element per group without keeping the elements themselves", version = 2)
+	public static Map groupSumBy(@GlueParam(name = "lambda") Lambda lambda, @GlueParam(name = "value") Lambda valueLambda, @GlueParam(name = "series") Object...objects) throws EvaluationException {
+		ExecutionContext executionContext = ScriptRuntime.getRuntime().getExecutionContext();
+		Map map = new LinkedHashMap();
+		for (Object [] keyed : getStreamingKeys(lambda, objects)) {
+			Object value = valueLambda == null ? keyed[1] : LambdaExecutionOperation.invoke(valueLambda, executionContext, keyed[1]);
+			if (value != null) {
+				Number number = GlueUtils.convert(value, Number.class);
+				if (number == null) {
+					throw new IllegalArgumentException("The value '" + value + "' of group '" + keyed[0] + "' is not a number");
+				}
+				map.put(keyed[0], add((Number) map.get(keyed[0]), number));
+			}
+		}
+		return map;
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@GlueMethod(description = "Reduces the elements per group without keeping the elements themselves, the lambda receives the current result of the group (null for the first element) and the element", version = 2)
+	public static Map groupReduce(@GlueParam(name = "lambda") Lambda lambda, @GlueParam(name = "reducer") Lambda reducer, @GlueParam(name = "series") Object...objects) throws EvaluationException {
+		if (reducer.getDescription().getParameters().size() != 2) {
+			throw new IllegalArgumentException("The reducer must have two parameters: the current result and the element");
+		}
+		ExecutionContext executionContext = ScriptRuntime.getRuntime().getExecutionContext();
+		Map map = new LinkedHashMap();
+		for (Object [] keyed : getStreamingKeys(lambda, objects)) {
+			map.put(keyed[0], LambdaExecutionOperation.invoke(reducer, executionContext, map.get(keyed[0]), keyed[1]));
+		}
+		return map;
+	}
+	
+	/**
+	 * Runs over the series one element at a time and returns a key/element pair for every group an element belongs to
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static Iterable<Object[]> getStreamingKeys(final Lambda lambda, Object...objects) {
+		if (lambda.getDescription().getParameters().size() != 1) {
+			throw new IllegalArgumentException("The lambda does not have enough parameters to process the element");
+		}
+		final Iterable<?> series = GlueUtils.resolve(GlueUtils.toSeries(objects));
+		final ExecutionContext executionContext = ScriptRuntime.getRuntime().getExecutionContext();
+		return new Iterable<Object[]>() {
+			@Override
+			public Iterator<Object[]> iterator() {
+				return new Iterator<Object[]>() {
+					private Iterator<?> parent = series.iterator();
+					private Object element;
+					private Iterator<?> keys;
+					@Override
+					public boolean hasNext() {
+						while ((keys == null || !keys.hasNext()) && parent.hasNext()) {
+							element = parent.next();
+							Object key;
+							try {
+								key = LambdaExecutionOperation.invoke(lambda, executionContext, element);
+							}
+							catch (EvaluationException e) {
+								throw new RuntimeException(e);
+							}
+							// it is possible to belong to multiple groups
+							keys = key instanceof Iterable ? ((Iterable<?>) key).iterator() : Arrays.asList(key).iterator();
+						}
+						return keys != null && keys.hasNext();
+					}
+					@Override
+					public Object[] next() {
+						return hasNext() ? new Object[] { keys.next(), element } : null;
+					}
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+	
+	private static Number add(Number total, Number value) {
+		if (total == null) {
+			return value;
+		}
+		else if (isIntegral(total) && isIntegral(value)) {
+			return total.longValue() + value.longValue();
+		}
+		return new BigDecimal(total.toString()).add(new BigDecimal(value.toString()));
+	}
+	
+	private static boolean isIntegral(Number number) {
+		return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+	}
 	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@GlueMethod(version = 2)
 	public static Iterable<?> sort(@GlueParam(name = "lambda") final Lambda lambda, @GlueParam(name = "series") Object...objects) {
 		final Iterable<?> series = GlueUtils.toSeries(objects);
-		List<?> resolved = resolve(series);
-		final ScriptRuntime runtime = ScriptRuntime.getRuntime();
-		if (lambda == null) {
-			Collections.sort((List<Comparable>) resolved);
+		// a lambda with a single parameter calculates the key to sort on, unless that parameter is a list that takes both elements
+		if (lambda != null && lambda.getDescription().getParameters().size() == 1 && !lambda.getDescription().getParameters().get(0).isList()) {
+			try {
+				return sortBy(lambda, series);
+			}
+			catch (EvaluationException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		Comparator comparator = lambda == null ? ExternalSeries.NATURAL : new ExternalSeries.LambdaComparator(lambda, ScriptRuntime.getRuntime());
+		List resolved;
+		// collections are already in memory
+		if (series instanceof Collection) {
+			resolved = resolve(series);
 		}
 		else {
-			Collections.sort(resolved, new Comparator() {
-				@Override
-				public int compare(Object o1, Object o2) {
-					List parameters = new ArrayList();
-					parameters.add(o1);
-					parameters.add(o2);
-					return GlueUtils.convert(GlueUtils.calculate(lambda, runtime, parameters), Integer.class);
+			Iterator<?> iterator = series.iterator();
+			resolved = resolve(ExternalSeries.read(iterator));
+			// series that don't fit in a single batch are sorted on disk
+			if (iterator.hasNext()) {
+				try {
+					Iterable<?> sorted = ExternalSeries.sort(resolved, iterator, comparator, null);
+					if (sorted != null) {
+						return sorted;
+					}
+				}
+				catch (EvaluationException e) {
+					throw new RuntimeException(e);
 				}
-			});
+			}
+		}
+		Collections.sort(resolved, comparator);
+		return resolved;
+	}
+	
+	/**
+	 * The key is calculated once for each element instead of calling a lambda for every comparison
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@GlueMethod(returns = "series", description = "Sorts the series on the key the lambda calculates for each element", version = 2)
+	public static Iterable<?> sortBy(@GlueParam(name = "lambda") Lambda lambda, @GlueParam(name = "series") Object...objects) throws EvaluationException {
+		if (lambda.getDescription().getParameters().size() != 1) {
+			throw new IllegalArgumentException("The lambda must have exactly one parameter to calculate the key of an element");
+		}
+		Iterable<?> series = GlueUtils.toSeries(objects);
+		List resolved;
+		// collections are already in memory
+		if (series instanceof Collection) {
+			resolved = resolve(series);
+		}
+		else {
+			Iterator<?> iterator = series.iterator();
+			resolved = resolve(ExternalSeries.read(iterator));
+			// series that don't fit in a single batch are sorted on disk
+			if (iterator.hasNext()) {
+				Iterable<?> sorted = ExternalSeries.sort(resolved, iterator, null, lambda);
+				if (sorted != null) {
+					return sorted;
+				}
+			}
+		}
+		Object [] keys = calculateKeys(lambda, resolved);
+		KeyedElement [] elements = new KeyedElement[keys.length];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = new KeyedElement(keys[i], i, resolved.get(i));
+		}
+		if (elements.length >= PARALLEL_SORT_THRESHOLD && GlueUtils.useParallelism()) {
+			Arrays.parallelSort(elements);
+		}
+		else {
+			Arrays.sort(elements);
+		}
+		for (int i = 0; i < elements.length; i++) {
+			resolved.set(i, elements[i].element);
 		}
 		return resolved;
 	}
 	
+	private static class KeyedElement implements Comparable<KeyedElement> {
+		private Object key, element;
+		private int index;
+		
+		public KeyedElement(Object key, int index, Object element) {
+			this.key = key;
+			this.index = index;
+			this.element = element;
+		}
+
+		@Override
+		public int compareTo(KeyedElement other) {
+			int result = compareKeys(key, other.key);
+			// the original order is kept for equal keys
+			return result == 0 ? Integer.compare(index, other.index) : result;
+		}
+	}
+	
+	/**
+	 * Null keys come first and numbers are compared by value whatever their type, with NaN after positive infinity.
+	 * Other keys of the same type are compared by their natural order and keys of different types by the name of their type.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static int compareKeys(Object key1, Object key2) {
+		if (key1 == null || key2 == null) {
+			return key1 == null ? (key2 == null ? 0 : -1) : 1;
+		}
+		else if (key1 instanceof Number && key2 instanceof Number) {
+			return compareNumbers((Number) key1, (Number) key2);
+		}
+		else if (!key1.getClass().equals(key2.getClass())) {
+			return key1.getClass().getName().compareTo(key2.getClass().getName());
+		}
+		else if (!(key1 instanceof Comparable)) {
+			throw new IllegalArgumentException("Can not sort on a key of type: " + key1.getClass());
+		}
+		return ((Comparable) key1).compareTo(key2);
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compareNumbers(Number number1, Number number2) {
+		if (number1.getClass().equals(number2.getClass()) && number1 instanceof Comparable) {
+			return ((Comparable) number1).compareTo(number2);
+		}
+		// infinity and NaN have no decimal value, they are larger (or smaller) than any finite number so comparing as doubles is exact enough
+		else if (!isFinite(number1) || !isFinite(number2)) {
+			return Double.compare(number1.doubleValue(), number2.doubleValue());
+		}
+		return toBigDecimal(number1).compareTo(toBigDecimal(number2));
+	}
+	
+	private static boolean isFinite(Number number) {
+		return !(number instanceof Double || number instanceof Float) || !(Double.isNaN(number.doubleValue()) || Double.isInfinite(number.doubleValue()));
+	}
+	
+	private static BigDecimal toBigDecimal(Number number) {
+		if (number instanceof BigDecimal) {
+			return (BigDecimal) number;
+		}
+		else if (number instanceof BigInteger) {
+			return new BigDecimal((BigInteger) number);
+		}
+		else if (isIntegral(number)) {
+			return BigDecimal.valueOf(number.longValue());
+		}
+		return new BigDecimal(number.toString());
+	}
+	
 	@SuppressWarnings("rawtypes")
 	@GlueMethod(version = 2)
 	public static CollectionIterable<?> repeat(Object...objects) {
@@ -190,7 +479,10 @@ public class SeriesMethods {
 	public static CollectionIterable filter(final Lambda lambda, Object...objects) {
 		final Iterable<?> series = GlueUtils.toSeries(objects);
 		final ScriptRuntime runtime = ScriptRuntime.getRuntime().fork(true);
-		return new CollectionIterable() {
+		if (SeriesPipeline.ENABLED) {
+			return MemoizedSeries.wrap(SeriesPipeline.filter(series, lambda, runtime));
+		}
+		return MemoizedSeries.wrap(new CollectionIterable() {
 			@Override
 			public Iterator iterator() {
 				return new Iterator() {
@@ -230,7 +522,7 @@ public class SeriesMethods {
 					}
 				};
 			}
-		};
+		});
 	}
 	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
@@ -257,28 +549,26 @@ public class SeriesMethods {
 			return null;
 		}
 		List<Object> objects = new ArrayList<Object>();
-		ForkJoinPool pool = null;
 		boolean sandboxed = "true".equals(ScriptRuntime.getRuntime().getExecutionContext().getExecutionEnvironment().getParameters().get("sandboxed"));
+		ChunkedResolver resolver = null;
 		long counter = 0;
+		// a memoized series that was not read yet is resolved in parallel from its source and remembers the result
+		MemoizedSeries memoized = null;
+		if (iterable instanceof MemoizedSeries && !((MemoizedSeries) iterable).isStarted() && !sandboxed && GlueUtils.useParallelism()) {
+			memoized = (MemoizedSeries) iterable;
+			iterable = memoized.getSource();
+		}
+		// a pipeline can leave the derives to the parallel resolving
+		if (iterable instanceof SeriesPipeline && !sandboxed && GlueUtils.useParallelism()) {
+			iterable = ((SeriesPipeline) iterable).lazy();
+		}
 		for (final Object single : iterable) {
 			if (single instanceof Callable) {
 				if (!sandboxed && GlueUtils.useParallelism()) {
-					if (pool == null) {
-						pool = new ForkJoinPool();
+					if (resolver == null) {
+						resolver = new ChunkedResolver(objects);
 					}
-					final ScriptRuntime runtime = ScriptRuntime.getRuntime().fork(true);
-					objects.add(pool.submit(new Callable() {
-						@Override
-						public Object call() throws Exception {
-							runtime.registerInThread();
-							try {
-								return ((Callable) single).call();
-							}
-							finally {
-								runtime.unregisterInThread();
-							}
-						}
-					}));
+					resolver.add((Callable) single);
 				}
 				else {
 					try {
@@ -297,28 +587,23 @@ public class SeriesMethods {
 				break;
 			}
 		}
-		if (pool != null) {
-			pool.shutdown();
-			try {
-				pool.awaitTermination(365, TimeUnit.DAYS);
-			}
-			catch (InterruptedException e) {
-				throw new RuntimeException("Could not finish computation", e);
-			}
-			for (int i = 0; i < objects.size(); i++) {
-				if (objects.get(i) instanceof ForkJoinTask) {
-					try {
-						objects.set(i, ((ForkJoinTask) objects.get(i)).get());
-					}
-					catch (Exception e) {
-						throw new RuntimeException("Could not compile results", e);
-					}
-				}
-			}
+		if (resolver != null) {
+			resolver.finish();
+		}
+		if (memoized != null) {
+			memoized.fill(objects);
 		}
 		return objects;
 	}
 	
+	@GlueMethod(returns = "series", description = "Remembers the elements of a lazy series as they are calculated so iterating it again does not calculate them again", version = 2)
+	public static Iterable<?> memoize(@GlueParam(name = "content") Object...original) {
+		if (original == null || original.length == 0) {
+			return null;
+		}
+		return MemoizedSeries.memoize(GlueUtils.toSeries(original));
+	}
+	
 	@SuppressWarnings("rawtypes")
 	@GlueMethod(description = "Merges the given series into a single series", version = 2)
 	public static CollectionIterable merge(final Object...original) {
@@ -455,7 +740,11 @@ public class SeriesMethods {
 			throw new IllegalArgumentException("The lambda does not have enough parameters to process the series: expecting " + iterables.size() + " input parameters, has " + lambda.getDescription().getParameters().size());
 		}
 		final ScriptRuntime runtime = ScriptRuntime.getRuntime().fork(true);
-		return new CollectionIterable() {
+		// a single series can be fused with the other stages, multiple series are zipped together
+		if (SeriesPipeline.ENABLED && iterables.size() == 1) {
+			return MemoizedSeries.wrap(SeriesPipeline.derive((Iterable<?>) iterables.get(0), lambda, runtime));
+		}
+		return MemoizedSeries.wrap(new CollectionIterable() {
 			@Override
 			public Iterator iterator() {
 				return new Iterator() {
@@ -483,10 +772,17 @@ public class SeriesMethods {
 							for (Iterator iterator : iterators) {
 								parameters.add(iterator.next());
 							}
-							final ScriptRuntime fork = runtime.fork(true);
-							return new Callable() {
+							return new ForkedCallable() {
 								@Override
 								public Object call() throws Exception {
+									return call(runtime.fork(true));
+								}
+								@Override
+								public ScriptRuntime getRuntime() {
+									return runtime;
+								}
+								@Override
+								public Object call(ScriptRuntime fork) throws Exception {
 									return GlueUtils.calculate(lambda, fork, parameters);
 								}
 							};
@@ -516,7 +812,7 @@ public class SeriesMethods {
 				}
 				return list.toString();
 			}
-		};
+		});
 	}
 	
 	@SuppressWarnings({ "rawtypes", "unchecked" })
@@ -562,6 +858,9 @@ public class SeriesMethods {
 		else if (offset < 0) {
 			return offsetFromBack(Math.abs(offset), iterable);
 		}
+		else if (SeriesPipeline.ENABLED) {
+			return SeriesPipeline.offset(iterable, offset);
+		}
 		else {
 			return new CollectionIterable() {
 				@Override
@@ -606,6 +905,9 @@ public class SeriesMethods {
 			List list = (List) iterable;
 			return list.subList(0, (int) Math.min(limit, list.size()));
 		}
+		else if (SeriesPipeline.ENABLED) {
+			return SeriesPipeline.limit(iterable, limit);
+		}
 		else {
 			return new CollectionIterable() {
 				@Override
@@ -743,7 +1045,7 @@ public class SeriesMethods {
 		}
 		final Iterable<?> series = GlueUtils.toSeries(original);
 		final ScriptRuntime runtime = ScriptRuntime.getRuntime().fork(true);
-		return new CollectionIterable() {
+		return MemoizedSeries.wrap(new CollectionIterable() {
 			@Override
 			public Iterator iterator() {
 				return new Iterator() {
@@ -792,7 +1094,7 @@ public class SeriesMethods {
 					}
 				};
 			}
-		};
+		});
 	}
 	
 	@GlueMethod(description = "Creates a dimensional value that can be used to manipulate series", version = 2)
@@ -0,0 +1,262 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl.methods.v2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import be.nabu.glue.core.api.CollectionIterable;
+import be.nabu.glue.core.api.ForkedCallable;
+import be.nabu.glue.core.api.Lambda;
+import be.nabu.glue.core.impl.GlueUtils;
+import be.nabu.glue.core.impl.MemoizedSeries;
+import be.nabu.glue.utils.ScriptRuntime;
+
+/**
+ * A chain of filter, derive, offset and limit calls on a series that is calculated in a single pass.
+ * Every element goes through all the stages before the next one is taken from the source and the source is no longer read once a limit is reached.
+ * Derived values are calculated directly, only a parallel resolve gets lazy elements for the derives that are not needed by a later filter.
+ */
+public class SeriesPipeline implements CollectionIterable<Object> {
+
+	public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("glue.series.fuse", "true"));
+
+	private enum StageType {
+		FILTER, DERIVE, OFFSET, LIMIT
+	}
+
+	private static class Stage {
+		private StageType type;
+		private Lambda lambda;
+		private ScriptRuntime runtime;
+		private long amount;
+
+		public Stage(StageType type, Lambda lambda, ScriptRuntime runtime, long amount) {
+			this.type = type;
+			this.lambda = lambda;
+			this.runtime = runtime;
+			this.amount = amount;
+		}
+	}
+
+	private Iterable<?> source;
+	private List<Stage> stages;
+
+	private SeriesPipeline(Iterable<?> source, List<Stage> stages) {
+		this.source = source;
+		this.stages = stages;
+	}
+
+	public static SeriesPipeline filter(Iterable<?> iterable, Lambda lambda, ScriptRuntime runtime) {
+		return append(iterable, new Stage(StageType.FILTER, lambda, runtime, 0));
+	}
+
+	public static SeriesPipeline derive(Iterable<?> iterable, Lambda lambda, ScriptRuntime runtime) {
+		return append(iterable, new Stage(StageType.DERIVE, lambda, runtime, 0));
+	}
+
+	public static SeriesPipeline offset(Iterable<?> iterable, long offset) {
+		return append(iterable, new Stage(StageType.OFFSET, null, null, offset));
+	}
+
+	public static SeriesPipeline limit(Iterable<?> iterable, long limit) {
+		return append(iterable, new Stage(StageType.LIMIT, null, null, limit));
+	}
+
+	// the original pipeline can still be iterated on its own so the stages are copied
+	private static SeriesPipeline append(Iterable<?> iterable, Stage stage) {
+		List<Stage> stages = new ArrayList<Stage>();
+		// as long as nothing was calculated, a memoized pipeline can still be fused
+		if (iterable instanceof MemoizedSeries && ((MemoizedSeries) iterable).getSource() instanceof SeriesPipeline && !((MemoizedSeries) iterable).isStarted()) {
+			iterable = ((MemoizedSeries) iterable).getSource();
+		}
+		if (iterable instanceof SeriesPipeline) {
+			stages.addAll(((SeriesPipeline) iterable).stages);
+			iterable = ((SeriesPipeline) iterable).source;
+		}
+		stages.add(stage);
+		return new SeriesPipeline(iterable, stages);
+	}
+
+	@Override
+	public Iterator<Object> iterator() {
+		return new PipelineIterator(false);
+	}
+
+	/**
+	 * The derives that are not needed by a later filter are not calculated, instead the element is a {@link ForkedCallable} that can be resolved in parallel
+	 */
+	Iterable<Object> lazy() {
+		return new Iterable<Object>() {
+			@Override
+			public Iterator<Object> iterator() {
+				return new PipelineIterator(true);
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		List<Object> list = new ArrayList<Object>();
+		for (Object object : this) {
+			list.add(object);
+		}
+		return list.toString();
+	}
+
+	private class PipelineIterator implements Iterator<Object> {
+		private Iterator<?> parent = source.iterator();
+		// the amount of elements that have been handled by each stage
+		private long [] counters = new long[stages.size()];
+		// the derives from this position onwards are not calculated in the pipeline
+		private int deferFrom = stages.size();
+		private List<Stage> deferred = new ArrayList<Stage>();
+		private Object next;
+		private boolean hasNext, done;
+
+		public PipelineIterator(boolean lazy) {
+			if (lazy) {
+				for (int i = stages.size() - 1; i >= 0 && stages.get(i).type != StageType.FILTER; i--) {
+					deferFrom = i;
+				}
+				for (int i = deferFrom; i < stages.size(); i++) {
+					if (stages.get(i).type == StageType.DERIVE) {
+						deferred.add(stages.get(i));
+					}
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!hasNext && !done) {
+				if (isLimitReached() || !parent.hasNext()) {
+					done = true;
+					break;
+				}
+				Object value = parent.next();
+				boolean accepted = true;
+				for (int i = 0; i < stages.size() && accepted; i++) {
+					Stage stage = stages.get(i);
+					switch (stage.type) {
+						case FILTER:
+							Boolean matches = (Boolean) GlueUtils.calculate(stage.lambda, stage.runtime, Arrays.asList(value, (int) counters[i]++));
+							accepted = matches != null && matches;
+						break;
+						case DERIVE:
+							if (i < deferFrom) {
+								value = GlueUtils.calculate(stage.lambda, stage.runtime, Arrays.asList(value));
+							}
+						break;
+						case OFFSET:
+							if (counters[i] < stage.amount) {
+								counters[i]++;
+								accepted = false;
+							}
+						break;
+						case LIMIT:
+							if (counters[i] < stage.amount) {
+								counters[i]++;
+							}
+							else {
+								accepted = false;
+								done = true;
+							}
+						break;
+					}
+				}
+				if (accepted) {
+					next = deferred.isEmpty() ? value : new DeferredElement(value, deferred);
+					hasNext = true;
+				}
+			}
+			// the pass has ended, whether by a limit or the end of the source, offsets that were not reached can not be skipped to
+			if (!hasNext && done) {
+				checkOffsets();
+			}
+			return hasNext;
+		}
+
+		private boolean isLimitReached() {
+			for (int i = 0; i < stages.size(); i++) {
+				if (stages.get(i).type == StageType.LIMIT && counters[i] >= stages.get(i).amount) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void checkOffsets() {
+			for (int i = 0; i < stages.size(); i++) {
+				if (stages.get(i).type == StageType.OFFSET && counters[i] < stages.get(i).amount) {
+					throw new IllegalArgumentException("Can not skip to offset " + stages.get(i).amount);
+				}
+			}
+		}
+
+		@Override
+		public Object next() {
+			if (hasNext()) {
+				hasNext = false;
+				Object next = this.next;
+				this.next = null;
+				return next;
+			}
+			return null;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * An element that still has to go through one or more derives, they all run in a fork of the runtime of the first one
+	 */
+	private static class DeferredElement implements ForkedCallable<Object> {
+		private Object value;
+		private List<Stage> derives;
+
+		public DeferredElement(Object value, List<Stage> derives) {
+			this.value = value;
+			this.derives = derives;
+		}
+
+		@Override
+		public Object call() throws Exception {
+			return call(getRuntime().fork(true));
+		}
+
+		@Override
+		public ScriptRuntime getRuntime() {
+			return derives.get(0).runtime;
+		}
+
+		@Override
+		public Object call(ScriptRuntime fork) throws Exception {
+			Object value = this.value;
+			for (Stage derive : derives) {
+				value = GlueUtils.calculate(derive.lambda, fork, Arrays.asList(value));
+			}
+			return value;
+		}
+	}
+}
@@ -27,6 +27,7 @@ import java.util.regex.Pattern;
 import be.nabu.glue.annotations.GlueMethod;
 import be.nabu.glue.annotations.GlueParam;
 import be.nabu.glue.core.api.Lambda;
+import be.nabu.glue.core.api.Pure;
 import be.nabu.glue.core.impl.GlueUtils;
 import be.nabu.glue.core.impl.GlueUtils.ObjectHandler;
 import be.nabu.glue.utils.ScriptRuntime;
@@ -56,6 +57,7 @@ public class StringMethods {
 	}
 	
 	@GlueMethod(description = "Adds the given pad to the given string(s) on the right until they reach the required length", returns = "The padded string(s)", version = 2)
+	@Pure
 	public static Object padRight(
 			@GlueParam(name = "pad", description = "The string used to pad") String pad, 
 			@GlueParam(name = "length", description = "The length of the resulting string") int length, 
@@ -64,6 +66,7 @@ public class StringMethods {
 	}
 	
 	@GlueMethod(description = "Adds the given pad to the given string(s) on the left until they reach the required length", returns = "The padded string(s)", version = 2)
+	@Pure
 	public static Object padLeft(
 			@GlueParam(name = "pad", description = "The string used to pad") String pad, 
 			@GlueParam(name = "length", description = "The length of the resulting string") int length, 
@@ -114,6 +117,7 @@ public class StringMethods {
 	}
 
 	@GlueMethod(description = "Uppercases the string(s)", version = 2)
+	@Pure
 	public static Object upper(@GlueParam(name = "string", description = "One or more strings") Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -124,6 +128,7 @@ public class StringMethods {
 	}
 
 	@GlueMethod(description = "Lowercases the string(s)", version = 2)
+	@Pure
 	public static Object lower(@GlueParam(name = "string", description = "One or more strings") Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -134,6 +139,7 @@ public class StringMethods {
 	}
 	
 	@GlueMethod(description = "Retrieves a substring of the given string", version = 2)
+	@Pure
 	public static Object substring(
 			@GlueParam(name = "start", description = "The start position") final Integer start,
 			@GlueParam(name = "stop", description = "The stop position", defaultValue = "To the end of the string") final Integer stop,
@@ -206,6 +212,7 @@ public class StringMethods {
 	}
 	
 	@GlueMethod(version = 2)
+	@Pure
 	public static Object quoteRegex(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -216,6 +223,7 @@ public class StringMethods {
 	}
 	
 	@GlueMethod(version = 2)
+	@Pure
 	public static Object quoteReplacement(Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -267,6 +275,7 @@ public class StringMethods {
 	}
 	
 	@GlueMethod(description = "Removes any leading and trailing whitespace from the given string(s)", version = 2)
+	@Pure
 	public static Object trim(@GlueParam(name = "string", description = "One or more strings") Object...original) {
 		return GlueUtils.wrap(GlueUtils.cast(new ObjectHandler() {
 			@Override
@@ -277,6 +286,7 @@ public class StringMethods {
 	}
 	
 	@GlueMethod(description = "Combines the given strings into a single string adding the seperator in between each string. For example join(',', 'a', 'b') returns 'a,b'", version = 2)
+	@Pure
 	public static String join(@GlueParam(name = "separator") String separator, @GlueParam(name = "string") Object...original) {
 		if (original == null || original.length == 0) {
 			return null;
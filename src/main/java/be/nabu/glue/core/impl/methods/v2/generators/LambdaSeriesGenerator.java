@@ -19,7 +19,6 @@ package be.nabu.glue.core.impl.methods.v2.generators;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
@@ -27,16 +26,12 @@ import java.util.Queue;
 import be.nabu.glue.api.ExecutionContext;
 import be.nabu.glue.api.ParameterDescription;
 import be.nabu.glue.core.api.CollectionIterable;
-import be.nabu.glue.core.api.EnclosedLambda;
 import be.nabu.glue.core.api.Lambda;
 import be.nabu.glue.core.impl.GlueUtils;
 import be.nabu.glue.core.impl.LambdaMethodProvider.LambdaExecutionOperation;
 import be.nabu.glue.core.impl.methods.v2.SeriesGenerator;
 import be.nabu.glue.utils.ScriptRuntime;
 import be.nabu.libs.evaluator.EvaluationException;
-import be.nabu.libs.evaluator.QueryPart;
-import be.nabu.libs.evaluator.QueryPart.Type;
-import be.nabu.libs.evaluator.impl.NativeOperation;
 
 /**
  * To generate series with lambdas, we have the ability to set default values
@@ -101,7 +96,6 @@ public class LambdaSeriesGenerator implements SeriesGenerator<Object> {
 						return iterator == null || iterator.hasNext();
 					}
 					
-					@SuppressWarnings("rawtypes")
 					@Override
 					public Object next() {
 						// can not return this as a callable because the next element in the series is dependent on the previous
@@ -111,24 +105,18 @@ public class LambdaSeriesGenerator implements SeriesGenerator<Object> {
 							response = prefill.poll();
 						}
 						else {
-							LambdaExecutionOperation lambdaOperation = new LambdaExecutionOperation(lambda.getDescription(), lambda.getOperation(), 
-								lambda instanceof EnclosedLambda ? ((EnclosedLambda) lambda).getEnclosedContext() : new HashMap<String, Object>());
-							lambdaOperation.add(new QueryPart(Type.STRING, "anonymous"));
-							for (int i = 0; i < lambda.getDescription().getParameters().size() - (iterator == null ? 0 : 1); i++) {
-								NativeOperation<?> operation = new NativeOperation();
-								operation.add(new QueryPart(Type.UNKNOWN, i < history.size() ? history.get(i) : null));
-								lambdaOperation.getParts().add(new QueryPart(Type.OPERATION, operation));
+							int amount = lambda.getDescription().getParameters().size() - (iterator == null ? 0 : 1);
+							Object [] parameters = new Object[amount + (iterator == null ? 0 : 1)];
+							for (int i = 0; i < amount; i++) {
+								parameters[i] = i < history.size() ? history.get(i) : null;
 							}
 							if (iterator != null) {
-								NativeOperation<?> operation = new NativeOperation();
-								Object resolveSingle = GlueUtils.resolveSingle(iterator.next());
-								operation.add(new QueryPart(Type.UNKNOWN, resolveSingle));
-								lambdaOperation.getParts().add(new QueryPart(Type.OPERATION, operation));
+								parameters[amount] = GlueUtils.resolveSingle(iterator.next());
 							}
 							ScriptRuntime current = ScriptRuntime.getRuntime();
 							runtime.registerInThread();
 							try {
-								response = lambdaOperation.evaluate(executionContext);
+								response = LambdaExecutionOperation.invoke(lambda, executionContext, parameters);
 							}
 							catch (EvaluationException e) {
 								throw new RuntimeException(e);
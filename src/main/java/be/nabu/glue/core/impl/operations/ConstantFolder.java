@@ -0,0 +1,110 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl.operations;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+import be.nabu.glue.api.ExecutionContext;
+import be.nabu.glue.core.api.Pure;
+import be.nabu.glue.core.impl.providers.DynamicMethodOperation;
+import be.nabu.glue.core.impl.providers.StaticMethodOperation;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.impl.ClassicOperation;
+import be.nabu.libs.evaluator.impl.NativeOperation;
+
+/**
+ * Replaces operations that only work on literals by their result.
+ * Calls are only folded if they resolved to a java method that is marked as {@link Pure}, operators are only folded if they only have literal operands.
+ * Only immutable results are folded, a list or map could be modified by the script and must be created anew every time.
+ */
+public class ConstantFolder {
+
+	public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("glue.fold", "true"));
+
+	/**
+	 * Returns the original operation if it can not be folded
+	 */
+	@SuppressWarnings("unchecked")
+	public static Operation<ExecutionContext> fold(Operation<ExecutionContext> operation) {
+		if (!ENABLED) {
+			return operation;
+		}
+		try {
+			if (operation instanceof DynamicMethodOperation) {
+				Operation<ExecutionContext> resolved = ((DynamicMethodOperation) operation).getResolvedOperation();
+				if (resolved instanceof StaticMethodOperation && ((StaticMethodOperation) resolved).getInvoker().getMethod().getAnnotation(Pure.class) != null) {
+					List<QueryPart> parts = operation.getParts();
+					Object [] arguments = new Object[parts.size() - 1];
+					for (int i = 1; i < parts.size(); i++) {
+						Object content = parts.get(i).getContent();
+						if (content instanceof Operation) {
+							if (!isConstant((Operation<ExecutionContext>) content)) {
+								return operation;
+							}
+							content = ((Operation<ExecutionContext>) content).evaluate(null);
+						}
+						arguments[i - 1] = content;
+					}
+					Object result = ((StaticMethodOperation) resolved).evaluate(null, arguments);
+					if (isImmutable(result)) {
+						return newConstant(result);
+					}
+				}
+			}
+			else if (operation instanceof ClassicOperation) {
+				for (QueryPart part : operation.getParts()) {
+					if (part.getType() == Type.VARIABLE || part.getType() == Type.NAMING) {
+						return operation;
+					}
+					else if (part.getContent() instanceof Operation && !isConstant((Operation<ExecutionContext>) part.getContent())) {
+						return operation;
+					}
+				}
+				Object result = operation.evaluate(null);
+				// decimal arithmetic depends on the math context which can be changed at runtime
+				if (result instanceof String || result instanceof Boolean || result instanceof Character || result instanceof Long || result instanceof Integer) {
+					return newConstant(result);
+				}
+			}
+		}
+		catch (Exception e) {
+			// if it can not be calculated up front, the error will be reported when it is run
+		}
+		return operation;
+	}
+
+	private static boolean isConstant(Operation<ExecutionContext> operation) {
+		return operation.getType() == OperationType.NATIVE && operation.getParts().size() == 1 && !(operation.getParts().get(0).getContent() instanceof Operation);
+	}
+
+	private static boolean isImmutable(Object result) {
+		return result instanceof String || result instanceof Boolean || result instanceof Character || result instanceof Long || result instanceof Integer
+			|| result instanceof Short || result instanceof Byte || result instanceof Double || result instanceof Float || result instanceof BigDecimal || result instanceof BigInteger;
+	}
+
+	private static Operation<ExecutionContext> newConstant(Object value) {
+		NativeOperation<ExecutionContext> operation = new NativeOperation<ExecutionContext>();
+		operation.add(new QueryPart(Type.UNKNOWN, value));
+		return operation;
+	}
+}
@@ -19,12 +19,22 @@ package be.nabu.glue.core.impl.operations;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import be.nabu.glue.api.ExecutionContext;
+import be.nabu.glue.api.MethodDescription;
+import be.nabu.glue.api.Script;
 import be.nabu.glue.core.api.DynamicMethodOperationProvider;
 import be.nabu.glue.core.api.MethodProvider;
+import be.nabu.glue.core.impl.LambdaMethodProvider;
 import be.nabu.glue.core.impl.providers.DynamicMethodOperation;
+import be.nabu.glue.core.impl.providers.ScriptMethodProvider;
 import be.nabu.libs.evaluator.api.Operation;
 import be.nabu.libs.evaluator.impl.ClassicOperation;
 import be.nabu.libs.evaluator.impl.NativeOperation;
@@ -32,6 +42,9 @@ import be.nabu.libs.evaluator.impl.NativeOperation;
 public class GlueOperationProvider implements DynamicMethodOperationProvider {
 	
 	private List<MethodProvider> methodProviders = new ArrayList<MethodProvider>();
+	private volatile MethodIndex index;
+	private volatile ImportResolutions importResolutions;
+	private static final int MAX_IMPORT_RESOLUTIONS = Integer.parseInt(System.getProperty("glue.importCacheSize", "10000"));
 
 	public GlueOperationProvider(MethodProvider...methodProviders) {
 		this.methodProviders.addAll(Arrays.asList(methodProviders));
@@ -44,7 +57,7 @@ public class GlueOperationProvider implements DynamicMethodOperationProvider {
 			case CLASSIC:
 				return new ClassicOperation<ExecutionContext>();
 			case METHOD:
-				return new DynamicMethodOperation(methodProviders.toArray(new MethodProvider[0]));
+				return new DynamicMethodOperation(this, methodProviders.toArray(new MethodProvider[0]));
 			case VARIABLE:
 				return new ScriptVariableOperation<ExecutionContext>();
 			case NATIVE:
@@ -57,4 +70,204 @@ public class GlueOperationProvider implements DynamicMethodOperationProvider {
 	public List<MethodProvider> getMethodProviders() {
 		return methodProviders;
 	}
+	
+	/**
+	 * The available methods of a lambda provider depend on what is in scope at that point so they can not be indexed
+	 */
+	public static boolean isIndexable(MethodProvider provider) {
+		return !(provider instanceof LambdaMethodProvider);
+	}
+	
+	/**
+	 * Returns the described methods that match the given name (either the short name or the name including namespace) for all the indexable providers
+	 */
+	public IndexedMethod getIndexedMethod(String name) {
+		long version = getVersion();
+		MethodIndex index = this.index;
+		if (index == null || index.version != version || index.providers != methodProviders.size()) {
+			synchronized(this) {
+				index = this.index;
+				if (index == null || index.version != version || index.providers != methodProviders.size()) {
+					index = new MethodIndex(methodProviders, version);
+					this.index = index;
+				}
+			}
+		}
+		IndexedMethod method = index.methods.get(name);
+		if (method == null) {
+			method = index.loaded.get(name);
+		}
+		// a repository that loads scripts on demand only lists the scripts that were already requested
+		if (method == null) {
+			for (MethodProvider provider : methodProviders) {
+				MethodDescription description = provider instanceof ScriptMethodProvider ? ((ScriptMethodProvider) provider).getDescription(name) : null;
+				if (description != null) {
+					method = new IndexedMethod();
+					method.descriptions.add(description);
+					IndexedMethod existing = index.loaded.putIfAbsent(name, method);
+					if (existing != null) {
+						method = existing;
+					}
+					break;
+				}
+			}
+		}
+		return method;
+	}
+	
+	/**
+	 * The combined version of the script repositories, the other providers don't change their methods unless {@link #invalidate()} is called
+	 */
+	private long getVersion() {
+		long version = 0;
+		for (MethodProvider provider : methodProviders) {
+			if (provider instanceof ScriptMethodProvider) {
+				version += ((ScriptMethodProvider) provider).getVersion();
+			}
+		}
+		return version;
+	}
+	
+	/**
+	 * Forces a rebuild of the index, this is only necessary if a method provider changes the methods it offers outside of a repository refresh
+	 */
+	public void invalidate() {
+		index = null;
+		importResolutions = null;
+	}
+	
+	/**
+	 * Returns the name that a short name resolved to given the script and imports it was resolved in (see DynamicMethodOperation)
+	 */
+	public String getResolvedImport(Script script, List<String> imports, String name) {
+		ImportResolutions importResolutions = this.importResolutions;
+		if (importResolutions == null || importResolutions.version != getVersion()) {
+			return null;
+		}
+		Map<List<String>, Map<String, String>> scopes = importResolutions.scripts.get(script);
+		Map<String, String> names = scopes == null ? null : scopes.get(imports);
+		return names == null ? null : names.get(name);
+	}
+	
+	public void setResolvedImport(Script script, List<String> imports, String name, String resolvedName) {
+		ImportResolutions importResolutions = this.importResolutions;
+		long version = getVersion();
+		// new scripts can change the outcome of a resolution so we start over when the repository changes
+		if (importResolutions == null || importResolutions.version != version || importResolutions.size.get() >= MAX_IMPORT_RESOLUTIONS) {
+			importResolutions = new ImportResolutions(version);
+			this.importResolutions = importResolutions;
+		}
+		Map<List<String>, Map<String, String>> scopes;
+		synchronized(importResolutions.scripts) {
+			scopes = importResolutions.scripts.get(script);
+			if (scopes == null) {
+				scopes = new ConcurrentHashMap<List<String>, Map<String, String>>();
+				importResolutions.scripts.put(script, scopes);
+			}
+		}
+		Map<String, String> names = scopes.get(imports);
+		if (names == null) {
+			// the imports of a runtime can still change so they are copied
+			names = new ConcurrentHashMap<String, String>();
+			Map<String, String> existing = scopes.putIfAbsent(new ArrayList<String>(imports), names);
+			if (existing != null) {
+				names = existing;
+			}
+		}
+		if (names.put(name, resolvedName) == null) {
+			importResolutions.size.incrementAndGet();
+		}
+	}
+	
+	private static class ImportResolutions {
+		private long version;
+		// the scripts are compared by identity, the imports by their content
+		private Map<Script, Map<List<String>, Map<String, String>>> scripts = Collections.synchronizedMap(new WeakHashMap<Script, Map<List<String>, Map<String, String>>>());
+		private AtomicInteger size = new AtomicInteger();
+		
+		public ImportResolutions(long version) {
+			this.version = version;
+		}
+	}
+	
+	private static class MethodIndex {
+		// must be taken before the providers are asked for their methods, otherwise a concurrent refresh could go unnoticed
+		private long version;
+		private int providers;
+		private Map<String, IndexedMethod> methods = new HashMap<String, IndexedMethod>();
+		// scripts that were loaded after the index was built
+		private Map<String, IndexedMethod> loaded = new ConcurrentHashMap<String, IndexedMethod>();
+		
+		public MethodIndex(List<MethodProvider> methodProviders, long version) {
+			this.version = version;
+			List<MethodProvider> providers = new ArrayList<MethodProvider>(methodProviders);
+			this.providers = providers.size();
+			for (MethodProvider provider : providers) {
+				if (isIndexable(provider)) {
+					for (MethodDescription description : provider.getAvailableMethods()) {
+						add(description.getName(), description);
+						if (description.getNamespace() != null) {
+							add(description.getNamespace() + "." + description.getName(), description);
+						}
+					}
+				}
+			}
+		}
+		
+		private void add(String name, MethodDescription description) {
+			IndexedMethod method = methods.get(name);
+			if (method == null) {
+				method = new IndexedMethod();
+				methods.put(name, method);
+			}
+			// a description could match both on its short name and its full name
+			if (method.descriptions.isEmpty() || method.descriptions.get(method.descriptions.size() - 1) != description) {
+				method.descriptions.add(description);
+			}
+		}
+	}
+	
+	/**
+	 * Methods with the same name are assumed to be overloaded versions of one another.
+	 * The widest description is only calculated on first use because this requires the parameters which might need to be parsed (e.g. for scripts)
+	 */
+	public static class IndexedMethod {
+		private List<MethodDescription> descriptions = new ArrayList<MethodDescription>();
+		private volatile MethodDescription description;
+		private int minimumAmountOfParameters;
+		
+		private void calculate() {
+			if (description == null) {
+				synchronized(this) {
+					if (description == null) {
+						MethodDescription widest = null;
+						for (MethodDescription possibleDescription : descriptions) {
+							if (widest == null || possibleDescription.getParameters().size() > widest.getParameters().size()) {
+								widest = possibleDescription;
+							}
+							// a method that has no parameters means we don't need to send along any parameters at all
+							if (possibleDescription.getParameters().isEmpty()) {
+								minimumAmountOfParameters = -1;
+							}
+						}
+						description = widest;
+					}
+				}
+			}
+		}
+		
+		public MethodDescription getDescription() {
+			calculate();
+			return description;
+		}
+		
+		public int getMinimumAmountOfParameters() {
+			calculate();
+			return minimumAmountOfParameters;
+		}
+
+		public List<MethodDescription> getDescriptions() {
+			return descriptions;
+		}
+	}
 }
@@ -0,0 +1,241 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl.operations;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.nabu.glue.api.ExecutionContext;
+import be.nabu.glue.core.impl.SlotLayout;
+import be.nabu.glue.core.impl.providers.DynamicMethodOperation;
+import be.nabu.glue.core.impl.providers.StaticMethodOperation;
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.api.OperationProvider.OperationType;
+import be.nabu.libs.evaluator.base.BaseOperation;
+import be.nabu.libs.evaluator.impl.ClassicOperation;
+
+/**
+ * Operations of executors that have run often enough are compiled into a tree that skips the generic dispatching where the outcome is already known:
+ * - calls that resolved to a static java method go straight to the method handle
+ * - plain variable reads go straight to the pipeline
+ * The operators themselves are still evaluated by the classic operation, only their operands are compiled.
+ * Whenever a compiled node can not handle the situation (e.g. the variable is not in the pipeline or the arguments don't match the signature), it falls back to the original operation.
+ */
+public class OperationCompiler {
+
+	// a negative threshold disables tiering
+	public static final int THRESHOLD = Integer.parseInt(System.getProperty("glue.tier.threshold", "-1"));
+
+	/**
+	 * Wraps the operation so it is compiled once it has been evaluated often enough
+	 */
+	public static Operation<ExecutionContext> tier(Operation<ExecutionContext> operation) {
+		return THRESHOLD < 0 || operation == null ? operation : new TieredOperation(operation);
+	}
+
+	/**
+	 * Returns the original operation if there is nothing to compile
+	 */
+	@SuppressWarnings("unchecked")
+	public static Operation<ExecutionContext> compile(Operation<ExecutionContext> operation) throws ParseException {
+		if (operation instanceof ScriptVariableOperation) {
+			String name = SlotLayout.getLocalName(operation);
+			return name == null ? operation : new CompiledVariable(operation, name);
+		}
+		else if (operation instanceof DynamicMethodOperation) {
+			Operation<ExecutionContext> resolved = ((DynamicMethodOperation) operation).getResolvedOperation();
+			if (resolved instanceof StaticMethodOperation) {
+				List<QueryPart> parts = operation.getParts();
+				Object [] arguments = new Object[parts.size() - 1];
+				for (int i = 1; i < parts.size(); i++) {
+					Object content = parts.get(i).getContent();
+					arguments[i - 1] = content instanceof Operation ? compile((Operation<ExecutionContext>) content) : content;
+				}
+				return new CompiledCall((DynamicMethodOperation) operation, (StaticMethodOperation) resolved, arguments);
+			}
+		}
+		else if (operation.getType() == OperationType.CLASSIC && operation instanceof ClassicOperation) {
+			List<QueryPart> parts = new ArrayList<QueryPart>();
+			boolean changed = false;
+			for (QueryPart part : operation.getParts()) {
+				if (part.getContent() instanceof Operation) {
+					Operation<ExecutionContext> compiled = compile((Operation<ExecutionContext>) part.getContent());
+					changed |= compiled != part.getContent();
+					parts.add(new QueryPart(Type.OPERATION, compiled));
+				}
+				else {
+					parts.add(part);
+				}
+			}
+			if (changed) {
+				ClassicOperation<ExecutionContext> clone = new ClassicOperation<ExecutionContext>();
+				for (QueryPart part : parts) {
+					clone.add(part);
+				}
+				clone.finish();
+				return clone;
+			}
+		}
+		return operation;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static class TieredOperation extends BaseOperation {
+
+		private Operation<ExecutionContext> operation;
+		private volatile Operation<ExecutionContext> compiled;
+		private AtomicInteger evaluations = new AtomicInteger();
+
+		@SuppressWarnings("unchecked")
+		public TieredOperation(Operation<ExecutionContext> operation) {
+			this.operation = operation;
+			for (QueryPart part : operation.getParts()) {
+				add(part);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Object evaluate(Object context) throws EvaluationException {
+			Operation<ExecutionContext> compiled = this.compiled;
+			// only the evaluation that reaches the threshold compiles, the others keep using the original until it is done
+			if (compiled == null && evaluations.incrementAndGet() == Math.max(1, THRESHOLD)) {
+				try {
+					compiled = compile(operation);
+				}
+				catch (Exception e) {
+					compiled = operation;
+				}
+				this.compiled = compiled;
+			}
+			return ((Operation) (compiled == null ? operation : compiled)).evaluate(context);
+		}
+
+		@Override
+		public void finish() throws ParseException {
+			// do nothing
+		}
+
+		@Override
+		public OperationType getType() {
+			return operation.getType();
+		}
+
+		@Override
+		public String toString() {
+			return operation.toString();
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static class CompiledVariable extends BaseOperation {
+
+		private Operation<ExecutionContext> operation;
+		private String name;
+
+		@SuppressWarnings("unchecked")
+		public CompiledVariable(Operation<ExecutionContext> operation, String name) {
+			this.operation = operation;
+			this.name = name;
+			for (QueryPart part : operation.getParts()) {
+				add(part);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Object evaluate(Object context) throws EvaluationException {
+			if (context instanceof ExecutionContext) {
+				Map<String, Object> pipeline = ((ExecutionContext) context).getPipeline();
+				Object value = pipeline.get(name);
+				if (value != null || pipeline.containsKey(name)) {
+					return ScriptVariableOperation.toResult(value);
+				}
+			}
+			return ((Operation) operation).evaluate(context);
+		}
+
+		@Override
+		public void finish() throws ParseException {
+			// do nothing
+		}
+
+		@Override
+		public OperationType getType() {
+			return operation.getType();
+		}
+
+		@Override
+		public String toString() {
+			return operation.toString();
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static class CompiledCall extends BaseOperation {
+
+		private DynamicMethodOperation operation;
+		private StaticMethodOperation target;
+		private Object [] arguments;
+
+		@SuppressWarnings("unchecked")
+		public CompiledCall(DynamicMethodOperation operation, StaticMethodOperation target, Object [] arguments) {
+			this.operation = operation;
+			this.target = target;
+			this.arguments = arguments;
+			for (QueryPart part : (List<QueryPart>) operation.getParts()) {
+				add(part);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Object evaluate(Object context) throws EvaluationException {
+			// metrics are only recorded by the original operation
+			if (!(context instanceof ExecutionContext) || DynamicMethodOperation.isMetered()) {
+				return operation.evaluate(context);
+			}
+			Object [] values = new Object[arguments.length];
+			for (int i = 0; i < arguments.length; i++) {
+				values[i] = arguments[i] instanceof Operation ? ((Operation) arguments[i]).evaluate(context) : arguments[i];
+			}
+			return DynamicMethodOperation.postProcess(target.evaluate((ExecutionContext) context, values));
+		}
+
+		@Override
+		public void finish() throws ParseException {
+			// do nothing
+		}
+
+		@Override
+		public OperationType getType() {
+			return operation.getType();
+		}
+
+		@Override
+		public String toString() {
+			return operation.toString();
+		}
+	}
+}
@@ -36,6 +36,8 @@ import be.nabu.glue.api.ParameterDescription;
 import be.nabu.glue.core.api.Lambda;
 import be.nabu.glue.core.impl.GlueUtils;
 import be.nabu.glue.core.impl.LambdaImpl;
+import be.nabu.glue.core.impl.SlotLayout;
+import be.nabu.glue.core.impl.SlotMap;
 import be.nabu.glue.core.impl.methods.v2.SeriesMethods;
 import be.nabu.glue.impl.SimpleMethodDescription;
 import be.nabu.glue.impl.SimpleParameterDescription;
@@ -51,10 +53,27 @@ import be.nabu.libs.evaluator.impl.VariableOperation;
 public class ScriptVariableOperation<T> extends VariableOperation<T> {
 
 	private ContextAccessor<T> accessor = null;
+	// the local name and the slot it was last resolved to
+	private volatile Slot slot;
 	
 	@Override
 	public Object evaluate(T context) throws EvaluationException {
-		Object value = super.evaluate(context);
+		Object value;
+		Map<String, Object> pipeline = SlotLayout.ENABLED && context instanceof ExecutionContext ? ((ExecutionContext) context).getPipeline() : null;
+		int index = pipeline instanceof SlotMap ? getSlotIndex(((SlotMap) pipeline).getLayout()) : -1;
+		if (index >= 0 && ((SlotMap) pipeline).hasSlot(index)) {
+			value = ((SlotMap) pipeline).getSlot(index);
+		}
+		else {
+			value = super.evaluate(context);
+		}
+		return toResult(value);
+	}
+	
+	/**
+	 * The value of a variable as it is returned to the script, also used by the compiled variables
+	 */
+	static Object toResult(Object value) {
 		// arraylists are used to create custom result sets
 		// convert these to arrays for integration purposes
 		// tuples don't use arraylist
@@ -64,6 +83,34 @@ public class ScriptVariableOperation<T> extends VariableOperation<T> {
 		return value;
 	}
 
+	private int getSlotIndex(SlotLayout layout) {
+		Slot slot = this.slot;
+		if (slot == null) {
+			slot = new Slot(SlotLayout.getLocalName(this), null, -1);
+			this.slot = slot;
+		}
+		if (slot.name == null) {
+			return -1;
+		}
+		if (slot.layout != layout) {
+			slot = new Slot(slot.name, layout, layout.getIndex(slot.name));
+			this.slot = slot;
+		}
+		return slot.index;
+	}
+	
+	private static class Slot {
+		private String name;
+		private SlotLayout layout;
+		private int index;
+		
+		public Slot(String name, SlotLayout layout, int index) {
+			this.name = name;
+			this.layout = layout;
+			this.index = index;
+		}
+	}
+
 	@Override
 	@SuppressWarnings("unchecked")
 	public ContextAccessor<T> getAccessor() {
@@ -22,11 +22,14 @@ import java.io.Reader;
 import java.io.StringWriter;
 import java.text.ParseException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import be.nabu.glue.api.AssignmentExecutor;
 import be.nabu.glue.api.ExecutionContext;
 import be.nabu.glue.api.Executor;
 import be.nabu.glue.api.ExecutorGroup;
@@ -64,6 +67,11 @@ import be.nabu.utils.io.api.ReadableContainer;
 
 public class GlueParser implements Parser {
 	
+	/**
+	 * Whether parsed scripts are linked before they are first run, see {@link #link(Executor)}
+	 */
+	public static final boolean LINK = Boolean.parseBoolean(System.getProperty("glue.link", "false"));
+	
 	private Analyzer<ExecutionContext> analyzer;
 	private OperationProvider<ExecutionContext> operationProvider;
 	private ScriptRepository repository;
@@ -534,6 +542,53 @@ public class GlueParser implements Parser {
 		return root;
 	}
 	
+	/**
+	 * Rewrites the operations of all the executors that only call statically known methods so this does not have to happen on first execution.
+	 * This is done without a runtime: whatever is in the pipeline of a script that happens to be running in this thread should not influence the result.
+	 * Because there is no pipeline, calls to a name that is assigned or used as a variable anywhere in the script are not linked, it might contain a lambda when the call is run.
+	 */
+	public static void link(Executor executor) {
+		Set<String> variables = new HashSet<String>();
+		collectVariables(executor, variables);
+		ScriptRuntime runtime = ScriptRuntime.getRuntime();
+		if (runtime != null) {
+			runtime.unregisterInThread();
+		}
+		try {
+			linkRecursively(executor, variables);
+		}
+		finally {
+			if (runtime != null) {
+				runtime.registerInThread();
+			}
+		}
+	}
+	
+	private static void collectVariables(Executor executor, Set<String> variables) {
+		if (executor instanceof AssignmentExecutor && ((AssignmentExecutor) executor).getVariableName() != null) {
+			variables.add(((AssignmentExecutor) executor).getVariableName());
+		}
+		if (executor instanceof BaseExecutor) {
+			((BaseExecutor) executor).collectVariables(variables);
+		}
+		if (executor instanceof ExecutorGroup) {
+			for (Executor child : ((ExecutorGroup) executor).getChildren()) {
+				collectVariables(child, variables);
+			}
+		}
+	}
+	
+	private static void linkRecursively(Executor executor, Set<String> variables) {
+		if (executor instanceof BaseExecutor) {
+			((BaseExecutor) executor).link(variables);
+		}
+		if (executor instanceof ExecutorGroup) {
+			for (Executor child : ((ExecutorGroup) executor).getChildren()) {
+				linkRecursively(child, variables);
+			}
+		}
+	}
+	
 	public static int indexOf(String line, char character, boolean first) {
 		int depth = 0;
 		boolean inString = false;
@@ -17,6 +17,10 @@
 
 package be.nabu.glue.core.impl.parsers;
 
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import be.nabu.glue.api.Parser;
 import be.nabu.glue.api.ParserProvider;
 import be.nabu.glue.api.ScriptRepository;
@@ -34,6 +38,16 @@ public class GlueParserProvider implements ParserProvider {
 
 	private boolean sandboxed;
 	private MethodProvider[] methodProviders;
+	
+	// the providers only cache information about java classes, SPI and the repository so they can be shared by every script that is parsed
+	// the values refer back to the repository so they are kept as long as this parser provider is
+	private Map<ScriptRepository, GlueOperationProvider> operationProviders = new WeakHashMap<ScriptRepository, GlueOperationProvider>();
+	private Map<ScriptRepository, GlueOperationProvider> sandboxedOperationProviders = new WeakHashMap<ScriptRepository, GlueOperationProvider>();
+	
+	// reflection and SPI discovery only depend on the classpath so they are shared by all parser providers
+	private static Map<ScriptRepository, WeakReference<ScriptMethodProvider>> scriptMethodProviders = new WeakHashMap<ScriptRepository, WeakReference<ScriptMethodProvider>>();
+	private static SPIMethodProvider spiMethodProvider;
+	private static StaticJavaMethodProvider staticJavaMethodProvider, sandboxedStaticJavaMethodProvider;
 
 	public GlueParserProvider(MethodProvider...methodProviders) {
 		this.methodProviders = methodProviders;
@@ -54,19 +68,34 @@ public class GlueParserProvider implements ParserProvider {
 		return null;
 	}
 
+	/**
+	 * The operation provider is shared by all parsers for the same repository so its method index is only built once
+	 */
 	public GlueOperationProvider newOperationProvider(ScriptRepository repository) {
-		return new GlueOperationProvider(getMethodProviders(repository));
+		Map<ScriptRepository, GlueOperationProvider> operationProviders = sandboxed ? sandboxedOperationProviders : this.operationProviders;
+		synchronized(operationProviders) {
+			GlueOperationProvider operationProvider = operationProviders.get(repository);
+			if (operationProvider == null) {
+				operationProvider = new GlueOperationProvider(newMethodProviders(repository));
+				operationProviders.put(repository, operationProvider);
+			}
+			return operationProvider;
+		}
 	}
 	
 	public MethodProvider[] getMethodProviders(ScriptRepository repository) {
+		return newOperationProvider(repository).getMethodProviders().toArray(new MethodProvider[0]);
+	}
+	
+	private MethodProvider[] newMethodProviders(ScriptRepository repository) {
 		MethodProvider [] providers = new MethodProvider[methodProviders.length + 6];
 		providers[0] = new LambdaMethodProvider();
 		for (int i = 0; i < methodProviders.length; i++) {
 			providers[i + 1] = methodProviders[i];
 		}
-		providers[providers.length - 5] = new ScriptMethodProvider(repository);
-		providers[providers.length - 4] = new SPIMethodProvider();
-		providers[providers.length - 3] = new StaticJavaMethodProvider();
+		providers[providers.length - 5] = getScriptMethodProvider(repository);
+		providers[providers.length - 4] = getSPIMethodProvider();
+		providers[providers.length - 3] = getStaticJavaMethodProvider(sandboxed);
 		providers[providers.length - 2] = new SystemMethodProvider();
 		providers[providers.length - 1] = new ControlMethodProvider();
 		
@@ -78,6 +107,45 @@ public class GlueParserProvider implements ParserProvider {
 		}
 		return providers;
 	}
+	
+	private static ScriptMethodProvider getScriptMethodProvider(ScriptRepository repository) {
+		synchronized(scriptMethodProviders) {
+			WeakReference<ScriptMethodProvider> reference = scriptMethodProviders.get(repository);
+			ScriptMethodProvider provider = reference == null ? null : reference.get();
+			if (provider == null) {
+				provider = new ScriptMethodProvider(repository);
+				scriptMethodProviders.put(repository, new WeakReference<ScriptMethodProvider>(provider));
+			}
+			return provider;
+		}
+	}
+	
+	private static SPIMethodProvider getSPIMethodProvider() {
+		synchronized(GlueParserProvider.class) {
+			if (spiMethodProvider == null) {
+				spiMethodProvider = new SPIMethodProvider();
+			}
+			return spiMethodProvider;
+		}
+	}
+	
+	private static StaticJavaMethodProvider getStaticJavaMethodProvider(boolean sandboxed) {
+		synchronized(GlueParserProvider.class) {
+			if (sandboxed) {
+				if (sandboxedStaticJavaMethodProvider == null) {
+					sandboxedStaticJavaMethodProvider = new StaticJavaMethodProvider();
+					sandboxedStaticJavaMethodProvider.setSandboxed(true);
+				}
+				return sandboxedStaticJavaMethodProvider;
+			}
+			else {
+				if (staticJavaMethodProvider == null) {
+					staticJavaMethodProvider = new StaticJavaMethodProvider();
+				}
+				return staticJavaMethodProvider;
+			}
+		}
+	}
 
 	public boolean isSandboxed() {
 		return sandboxed;
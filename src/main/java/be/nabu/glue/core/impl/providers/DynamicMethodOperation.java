@@ -33,10 +33,10 @@ import be.nabu.glue.core.api.Lambda;
 import be.nabu.glue.core.api.MethodProvider;
 import be.nabu.glue.core.impl.GlueUtils;
 import be.nabu.glue.core.impl.LambdaMethodProvider;
+import be.nabu.glue.core.impl.operations.GlueOperationProvider;
 import be.nabu.glue.impl.ForkedExecutionContext;
 import be.nabu.glue.impl.TransactionalCloseable;
 import be.nabu.glue.utils.ScriptRuntime;
-import be.nabu.glue.utils.ScriptUtils;
 import be.nabu.libs.evaluator.EvaluationException;
 import be.nabu.libs.evaluator.QueryPart;
 import be.nabu.libs.evaluator.api.Operation;
@@ -63,10 +63,21 @@ public class DynamicMethodOperation extends BaseOperation {
 	// the same goes for the rewriting logic of method calls but it is assumed that all passed in lambdas have the same specification so that step is still cached
 	private boolean isDynamic;
 	
+	// for dynamic operations we remember the last lambda that was resolved, as long as the same lambda is in scope the built operation can be reused
+	private volatile LambdaCache lambdaCache;
+	
+	// the operation provider that created this operation, it holds the import resolutions that can be shared between operations
+	private GlueOperationProvider operationProvider;
+	
 	public DynamicMethodOperation(MethodProvider...methodProviders) {
 		this.methodProviders = methodProviders;
 	}
 	
+	public DynamicMethodOperation(GlueOperationProvider operationProvider, MethodProvider...methodProviders) {
+		this.operationProvider = operationProvider;
+		this.methodProviders = methodProviders;
+	}
+	
 	@SuppressWarnings({ "unchecked" })
 	@Override
 	public Object evaluate(Object context) throws EvaluationException {
@@ -121,6 +132,18 @@ public class DynamicMethodOperation extends BaseOperation {
 		}
 	}
 
+	/**
+	 * Whether method calls are currently being timed
+	 */
+	public static boolean isMetered() {
+		ScriptRuntime runtime = ScriptRuntime.getRuntime();
+		ExecutionContext executionContext = runtime == null ? null : runtime.getExecutionContext();
+		while (executionContext instanceof ForkedExecutionContext) {
+			executionContext = ((ForkedExecutionContext) executionContext).getParent();
+		}
+		return executionContext instanceof MetricProvider;
+	}
+	
 	private MetricInstance getMetrics(Operation<ExecutionContext> operation) {
 		MetricInstance metrics = null;
 		ExecutionContext executionContext = ScriptRuntime.getRuntime().getExecutionContext();
@@ -137,7 +160,7 @@ public class DynamicMethodOperation extends BaseOperation {
 		return metrics;
 	}
 	
-	private static Object postProcess(Object returnValue) {
+	public static Object postProcess(Object returnValue) {
 		// from version 2 onwards we immediately load all streams
 		// in the unlikely event that you open the stream only to stream it to somewhere else we can provide dedicated methods, in all other cases it will be loaded in memory anyway
 		// this way we at least have no leaks and the streams are not "read-once" until converted to bytes and autoconversion is easier
@@ -197,76 +220,127 @@ public class DynamicMethodOperation extends BaseOperation {
 	@SuppressWarnings("unchecked")
 	private Operation<ExecutionContext> buildOperation() throws ParseException {
 		Operation<ExecutionContext> operation = this.operation;
+		// a short name that is resolved without a runtime has not taken the imports or the package into account (e.g. when linking), it is resolved again once it runs
+		boolean unscoped = false;
 		if (operation == null && !(((List<QueryPart>) getParts()).get(0).getContent() instanceof Operation)) {
 			String fullName = (String) ((List<QueryPart>) getParts()).get(0).getContent();
-			// let's resolve it initially
-			operation = getOperation(fullName);
-			// if it is not a namespaced name, we check the imports (if any)
-			if (fullName.indexOf('.') < 0) {
-				// if we resolved a lambda, we don't check imports though, you might override that with a local lambda (your choice!)
-				if (!isDynamic) {
-					ScriptRuntime runtime = ScriptRuntime.getRuntime();
-					// we need a runtime to resolve imports
-					if (runtime != null) {
-						Operation<ExecutionContext> explicitMatch = null;
-						Operation<ExecutionContext> starredMatch = null;
-						List<String> imports = runtime.getImports();
-						// we run backwards meaning we take the latest imports firsts, this allows you to "reimport" something
-						// note that if you do a starred import _after_ a specific import, the specific one still wins atm
-						// so import("math2.sum") followed by import("math.*") will still take the math2.sum one!
-						for (int i = imports.size() - 1; i >= 0; i--) {
-							String entry = imports.get(i);
-							// we found an exact match, reresolve it!
-							if (entry.endsWith("." + fullName)) {
-								fullName = entry;
-								explicitMatch = getOperation(entry);
-								// if you did an explicit import and we can't find it, we should throw an exception
-								if (explicitMatch == null) {
-									throw new ParseException("Can not resolve import: " + entry, 0);
+			unscoped = fullName.indexOf('.') < 0 && ScriptRuntime.getRuntime() == null;
+			LambdaCache lambdaCache = this.lambdaCache;
+			if (isDynamic && lambdaCache != null && LambdaMethodProvider.getLambda(fullName) == lambdaCache.lambda) {
+				return lambdaCache.operation;
+			}
+			// if we have resolved this name before in the same script with the same imports, we can go straight to the target
+			String shortName = fullName;
+			ScriptRuntime scope = getImportScope(shortName);
+			String resolvedName = scope == null ? null : operationProvider.getResolvedImport(scope.getScript(), scope.getImports(), shortName);
+			// a lambda in scope always takes precedence
+			if (resolvedName != null && LambdaMethodProvider.getLambda(fullName) == null) {
+				operation = getOperation(resolvedName);
+			}
+			else {
+				// let's resolve it initially
+				operation = getOperation(fullName);
+				resolvedName = fullName;
+				// if it is not a namespaced name, we check the imports (if any)
+				if (fullName.indexOf('.') < 0) {
+					// if we resolved a lambda, we don't check imports though, you might override that with a local lambda (your choice!)
+					if (!isDynamic) {
+						ScriptRuntime runtime = ScriptRuntime.getRuntime();
+						// we need a runtime to resolve imports
+						if (runtime != null) {
+							Operation<ExecutionContext> explicitMatch = null;
+							Operation<ExecutionContext> starredMatch = null;
+							String starredName = null;
+							List<String> imports = runtime.getImports();
+							// we run backwards meaning we take the latest imports firsts, this allows you to "reimport" something
+							// note that if you do a starred import _after_ a specific import, the specific one still wins atm
+							// so import("math2.sum") followed by import("math.*") will still take the math2.sum one!
+							for (int i = imports.size() - 1; i >= 0; i--) {
+								String entry = imports.get(i);
+								// we found an exact match, reresolve it!
+								if (entry.endsWith("." + fullName)) {
+									fullName = entry;
+									explicitMatch = getOperation(entry);
+									// if you did an explicit import and we can't find it, we should throw an exception
+									if (explicitMatch == null) {
+										throw new ParseException("Can not resolve import: " + entry, 0);
+									}
+									// otherwise, we stop the lookin'!
+									else {
+										break;
+									}
 								}
-								// otherwise, we stop the lookin'!
-								else {
-									break;
+								// a wildcard import, we can try it...
+								else if (starredMatch == null && entry.endsWith(".*")) {
+									// strip the star and add the name (leave the dot)
+									starredName = entry.substring(0, entry.length() - 1) + fullName;
+									starredMatch = getOperation(starredName);
 								}
 							}
-							// a wildcard import, we can try it...
-							else if (starredMatch == null && entry.endsWith(".*")) {
-								// strip the star and add the name (leave the dot)
-								starredMatch = getOperation(entry.substring(0, entry.length() - 1) + fullName);
+							if (explicitMatch != null) {
+								operation = explicitMatch;
+								resolvedName = fullName;
 							}
-						}
-						if (explicitMatch != null) {
-							operation = explicitMatch;
-						}
-						else if (starredMatch != null) {
-							operation = starredMatch;
-						}
-						// we attempt a package lookup (if relevant)
-						else {
-							String namespace = runtime.getScript().getNamespace();
-							if (namespace != null) {
-								Operation<ExecutionContext> packageMatch = getOperation(namespace + "." + fullName);
-								if (packageMatch != null) {
-									operation = packageMatch;
+							else if (starredMatch != null) {
+								operation = starredMatch;
+								resolvedName = starredName;
+							}
+							// we attempt a package lookup (if relevant)
+							else {
+								String namespace = runtime.getScript().getNamespace();
+								if (namespace != null) {
+									Operation<ExecutionContext> packageMatch = getOperation(namespace + "." + fullName);
+									if (packageMatch != null) {
+										operation = packageMatch;
+										resolvedName = namespace + "." + fullName;
+									}
 								}
 							}
 						}
 					}
 				}
+				if (scope != null && !isDynamic) {
+					operationProvider.setResolvedImport(scope.getScript(), scope.getImports(), shortName, resolvedName);
+				}
 			}
 			if (operation != null) {
 				for (QueryPart part : ((List<QueryPart>) getParts())) {
 					operation.add(new QueryPart(part.getType(), part.getContent()));
 				}
 				operation.finish();
+				if (isDynamic) {
+					Lambda lambda = LambdaMethodProvider.getLambda(fullName);
+					this.lambdaCache = lambda == null ? null : new LambdaCache(lambda, operation);
+				}
 			}
 		}
-		if (!isDynamic) {
+		if (!isDynamic && !unscoped) {
 			this.operation = operation;
 		}
 		return operation;
 	}
+	
+	private static class LambdaCache {
+		private Lambda lambda;
+		private Operation<ExecutionContext> operation;
+		
+		public LambdaCache(Lambda lambda, Operation<ExecutionContext> operation) {
+			this.lambda = lambda;
+			this.operation = operation;
+		}
+	}
 
+	/**
+	 * The resolution of a short name depends on the script (for the package lookup) and the imports at that point, returns the runtime that holds both or null if the name is not resolved through imports
+	 */
+	private ScriptRuntime getImportScope(String name) {
+		ScriptRuntime runtime = ScriptRuntime.getRuntime();
+		if (operationProvider == null || name.indexOf('.') >= 0 || runtime == null || runtime.getScript() == null) {
+			return null;
+		}
+		return runtime;
+	}
+	
 	protected Operation<ExecutionContext> getOperation(String fullName) {
 		for (MethodProvider provider : methodProviders) {
 			Operation<ExecutionContext> operation = provider.resolve(fullName);
@@ -297,6 +371,13 @@ public class DynamicMethodOperation extends BaseOperation {
 		return operation.toString();
 	}
 
+	/**
+	 * The operation this call resolved to, this is null if it has not been resolved yet or if it can change from one evaluation to the next (e.g. a lambda)
+	 */
+	public Operation<ExecutionContext> getResolvedOperation() {
+		return isDynamic ? null : operation;
+	}
+	
 	public MethodProvider[] getMethodProviders() {
 		return methodProviders;
 	}
@@ -22,6 +22,7 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -37,11 +38,14 @@ import be.nabu.glue.core.api.EnclosedLambda;
 import be.nabu.glue.core.api.Lambda;
 import be.nabu.glue.core.api.MethodProvider;
 import be.nabu.glue.core.api.OptionalTypeConverter;
+import be.nabu.glue.core.impl.ClosureMap;
 import be.nabu.glue.core.impl.GlueUtils;
 import be.nabu.glue.core.impl.LambdaImpl;
 import be.nabu.glue.core.impl.LambdaMethodProvider.LambdaExecutionOperation;
 import be.nabu.glue.core.impl.executors.EvaluateExecutor;
 import be.nabu.glue.core.impl.methods.ScriptMethods;
+import be.nabu.glue.core.repositories.LazyScriptDescription;
+import be.nabu.glue.core.repositories.ScriptRepositoryVersion;
 import be.nabu.glue.impl.SimpleExecutionContext;
 import be.nabu.glue.impl.SimpleMethodDescription;
 import be.nabu.glue.impl.SimpleParameterDescription;
@@ -58,11 +62,46 @@ import be.nabu.libs.evaluator.impl.VariableOperation;
 public class ScriptMethodProvider implements MethodProvider {
 
 	private ScriptRepository repository;
+	private ScriptRepositoryVersion version;
+	private volatile AvailableMethods availableMethods;
+	private volatile Misses misses;
+	private static final int MAX_MISSES = Integer.parseInt(System.getProperty("glue.repository.missCacheSize", "1000"));
 	public static boolean ALLOW_VARARGS = Boolean.parseBoolean(System.getProperty("script.varargs", "true"));
 	public static boolean ALLOW_LAMBDAS = Boolean.parseBoolean(System.getProperty("script.lambdas", "true"));
 
 	public ScriptMethodProvider(ScriptRepository repository) {
 		this.repository = repository;
+		this.version = ScriptRepositoryVersion.of(repository);
+	}
+
+	/**
+	 * Changes whenever the scripts in the repository change
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * The description of a script that might not be in the available methods yet because the repository only loads scripts when they are requested
+	 */
+	public MethodDescription getDescription(String name) {
+		if (repository == null || isMiss(name)) {
+			return null;
+		}
+		try {
+			Script script = repository.getScript(name);
+			if (script == null) {
+				miss(name);
+				return null;
+			}
+			return new LazyScriptDescription(script, null);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		catch (ParseException e) {
+			throw new RuntimeException(e);
+		}
 	}
 	
 	@Override
@@ -86,8 +125,12 @@ public class ScriptMethodProvider implements MethodProvider {
 			else if ("import".equals(name) || "script.import".equals(name)) {
 				return new ImportOperation();
 			}
-			else if (repository != null && repository.getScript(name) != null) {
-				return new ScriptOperation(repository.getScript(name));
+			else if (repository != null && !isMiss(name)) {
+				Script script = repository.getScript(name);
+				if (script != null) {
+					return new ScriptOperation(script);
+				}
+				miss(name);
 			}
 			return null;
 		}
@@ -99,24 +142,66 @@ public class ScriptMethodProvider implements MethodProvider {
 		}
 	}
 
+	private boolean isMiss(String name) {
+		Misses misses = this.misses;
+		return misses != null && misses.version == getVersion() && misses.names.containsKey(name);
+	}
+	
+	private void miss(String name) {
+		if (MAX_MISSES > 0) {
+			Misses misses = this.misses;
+			if (misses == null || misses.version != getVersion()) {
+				misses = new Misses();
+				this.misses = misses;
+			}
+			misses.names.put(name, true);
+		}
+	}
+	
+	/**
+	 * The names that are not scripts (e.g. java methods), this is only valid as long as the repositories don't change
+	 */
+	private class Misses {
+		private long version = getVersion();
+		@SuppressWarnings("serial")
+		private Map<String, Boolean> names = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > MAX_MISSES;
+			}
+		});
+	}
+
 	@Override
 	public List<MethodDescription> getAvailableMethods() {
-		List<MethodDescription> descriptions;
-		if (repository instanceof ScriptRepositoryWithDescriptions) {
-			descriptions = new ArrayList<MethodDescription>(((ScriptRepositoryWithDescriptions) repository).getDescriptions());
-		}
-		else {
-			descriptions = ScriptUtils.buildDescriptionsFor(repository);
-		}
-		// add lambda if necessary
-		if (ALLOW_LAMBDAS) {
-			descriptions.add(new SimpleMethodDescription("script", "lambda", null, 
-				Arrays.asList(new ParameterDescription [] { new SimpleParameterDescription("method", "The method", "lambda") }),
-				Arrays.asList(new ParameterDescription [] { new SimpleParameterDescription("lambda", "The method", "lambda") }),
-				true
-			));
-		}
-		return descriptions;
+		// the list only changes when a repository is refreshed
+		AvailableMethods availableMethods = this.availableMethods;
+		if (availableMethods == null || availableMethods.version != getVersion()) {
+			availableMethods = new AvailableMethods();
+			List<MethodDescription> descriptions;
+			if (repository instanceof ScriptRepositoryWithDescriptions) {
+				descriptions = new ArrayList<MethodDescription>(((ScriptRepositoryWithDescriptions) repository).getDescriptions());
+			}
+			else {
+				descriptions = ScriptUtils.buildDescriptionsFor(repository);
+			}
+			// add lambda if necessary
+			if (ALLOW_LAMBDAS) {
+				descriptions.add(new SimpleMethodDescription("script", "lambda", null, 
+					Arrays.asList(new ParameterDescription [] { new SimpleParameterDescription("method", "The method", "lambda") }),
+					Arrays.asList(new ParameterDescription [] { new SimpleParameterDescription("lambda", "The method", "lambda") }),
+					true
+				));
+			}
+			availableMethods.descriptions = Collections.unmodifiableList(descriptions);
+			this.availableMethods = availableMethods;
+		}
+		return availableMethods.descriptions;
+	}
+	
+	private class AvailableMethods {
+		private long version = getVersion();
+		private List<MethodDescription> descriptions;
 	}
 	
 	public static class ParameterizedEvaluationException extends EvaluationException {
@@ -294,12 +379,10 @@ public class ScriptMethodProvider implements MethodProvider {
 				}
 			}
 			if (exactMatch != null) {
-				LambdaExecutionOperation operation = new LambdaExecutionOperation(exactMatch.getDescription(), exactMatch.getOperation(), exactMatch instanceof EnclosedLambda ? ((EnclosedLambda) exactMatch).getEnclosedContext() : new HashMap<String, Object>());
-				return operation.evaluateWithParameters(context, exactConverted.toArray());
+				return LambdaExecutionOperation.invoke(exactMatch, context, exactConverted.toArray());
 			}
 			else if (closeMatch != null) {
-				LambdaExecutionOperation operation = new LambdaExecutionOperation(closeMatch.getDescription(), closeMatch.getOperation(), closeMatch instanceof EnclosedLambda ? ((EnclosedLambda) closeMatch).getEnclosedContext() : new HashMap<String, Object>());
-				return operation.evaluateWithParameters(context, closeConverted.toArray());
+				return LambdaExecutionOperation.invoke(closeMatch, context, closeConverted.toArray());
 			}
 			else {
 				throw new RuntimeException("Can not find matching target for dispatching");
@@ -362,7 +445,7 @@ public class ScriptMethodProvider implements MethodProvider {
 			counter++;
 			runtime.getContext().put(fullName + ".lambda.counter", counter);
 			Operation<ExecutionContext> lambdaOperation = (Operation<ExecutionContext>) getParts().get(getParts().size() - 1).getContent();
-			Map<String, Object> enclosedContext = useActualPipeline ? context.getPipeline() : new HashMap<String, Object>(context.getPipeline());
+			Map<String, Object> enclosedContext = useActualPipeline ? context.getPipeline() : ClosureMap.capture(context.getPipeline());
 			return new LambdaImpl(new SimpleMethodDescription(runtime.getScript().getNamespace(), runtime.getScript().getName() + "$" + counter, "Lambda " + counter, inputParameters, 
 					Arrays.asList(new ParameterDescription [] { new SimpleParameterDescription("return", null, "object") })), 
 					lambdaOperation, enclosedContext, useActualPipeline);
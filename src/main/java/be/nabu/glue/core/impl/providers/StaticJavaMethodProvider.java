@@ -24,7 +24,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
 
 import be.nabu.glue.annotations.GlueMethod;
 import be.nabu.glue.annotations.GlueParam;
@@ -49,6 +52,37 @@ public class StaticJavaMethodProvider implements SandboxableMethodProvider {
 	private Object context;
 	private boolean sandboxed;
 	
+	// the methods that have been resolved by name, names that do not match a method are mapped to a marker
+	private Map<String, Method> resolvedMethods = new ConcurrentHashMap<String, Method>();
+	private static Method UNRESOLVED;
+	private static final int MAX_RESOLVED = Integer.parseInt(System.getProperty("glue.staticJava.resolveCacheSize", "10000"));
+	
+	static {
+		try {
+			UNRESOLVED = Object.class.getMethod("toString");
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static final boolean USE_METHOD_HANDLES = Boolean.parseBoolean(System.getProperty("glue.methodHandles", "true"));
+	private Map<Method, Optional<StaticMethodInvoker>> invokers = new ConcurrentHashMap<Method, Optional<StaticMethodInvoker>>();
+	
+	// the outcome of the filter only depends on annotations, version settings and the sandbox mode so it can be cached per method
+	private Map<Method, Boolean> verdicts = new ConcurrentHashMap<Method, Boolean>();
+	private MethodFilter methodFilter = new MethodFilter() {
+		@Override
+		public boolean isAllowed(Method method) {
+			Boolean verdict = verdicts.get(method);
+			if (verdict == null) {
+				verdict = isAllowedMethod(method);
+				verdicts.put(method, verdict);
+			}
+			return verdict;
+		}
+	};
+	
 	public StaticJavaMethodProvider() {
 		// auto construct
 	}
@@ -92,37 +126,72 @@ public class StaticJavaMethodProvider implements SandboxableMethodProvider {
 
 	@Override
 	public Operation<ExecutionContext> resolve(String name) {
-		MethodOperation<ExecutionContext> methodOperation = new MethodOperation<ExecutionContext>(getMethodClasses());
-		// don't allow random access to java classes in sandbox mode
-		if (sandboxed) {
-			methodOperation.setAllowAnyClass(false);
+		Method resolved = resolvedMethods.get(name);
+		if (resolved == UNRESOLVED) {
+			return null;
 		}
-		methodOperation.setContext(context);
-		methodOperation.setMethodFilter(new MethodFilter() {
-			@Override
-			public boolean isAllowed(Method method) {
-				GlueMethod methodAnnotation = method.getAnnotation(GlueMethod.class);
-				// restricted methods are not allowed in sandbox mode
-				if (methodAnnotation != null && methodAnnotation.restricted() && sandboxed) {
-					return false;
-				}
-				Double version = methodAnnotation == null ? null : methodAnnotation.version();
-				MethodProviderClass annotation = method.getDeclaringClass().getAnnotation(MethodProviderClass.class);
-				String namespace = annotation == null || annotation.namespace() == null || annotation.namespace().isEmpty() ? method.getDeclaringClass().getName() : annotation.namespace();
-				GlueUtils.VersionRange range = GlueUtils.getVersion(namespace, method.getName());
-				return range == null || range.contains(version);
-			}
-		});
+		// we already know the method exists
+		else if (resolved != null) {
+			StaticMethodInvoker invoker = getInvoker(resolved);
+			return invoker == null ? newMethodOperation() : new StaticMethodOperation(invoker, this);
+		}
+		MethodOperation<ExecutionContext> methodOperation = newMethodOperation();
 		try {
-			if (methodOperation.findMethod(name) != null) {
-				return methodOperation;
+			Method method = methodOperation.findMethod(name);
+			putResolved(name, method == null ? UNRESOLVED : method);
+			if (method != null) {
+				StaticMethodInvoker invoker = getInvoker(method);
+				return invoker == null ? methodOperation : new StaticMethodOperation(invoker, this);
 			}
 		}
 		catch (ClassNotFoundException e) {
 			// ignore this, you might be referencing a namespaced script or something
+			putResolved(name, UNRESOLVED);
 		}
 		return null;
 	}
+	
+	MethodOperation<ExecutionContext> newMethodOperation() {
+		MethodOperation<ExecutionContext> methodOperation = new MethodOperation<ExecutionContext>(getMethodClasses());
+		// don't allow random access to java classes in sandbox mode
+		if (sandboxed) {
+			methodOperation.setAllowAnyClass(false);
+		}
+		methodOperation.setContext(context);
+		methodOperation.setMethodFilter(methodFilter);
+		return methodOperation;
+	}
+	
+	private StaticMethodInvoker getInvoker(Method method) {
+		// instance methods are always invoked reflectively
+		if (!USE_METHOD_HANDLES || context != null) {
+			return null;
+		}
+		if (!invokers.containsKey(method)) {
+			// a null is stored for methods that can not be invoked directly
+			invokers.put(method, Optional.ofNullable(StaticMethodInvoker.newInvoker(method)));
+		}
+		return invokers.get(method).orElse(null);
+	}
+	
+	private void putResolved(String name, Method method) {
+		// names can be generated dynamically (e.g. through eval) so we don't want this to grow indefinitely
+		if (resolvedMethods.size() >= MAX_RESOLVED) {
+			resolvedMethods.clear();
+		}
+		resolvedMethods.put(name, method);
+	}
+	
+	/**
+	 * Returns the method that a name resolves to in this provider (if any)
+	 */
+	public Method getMethod(String name) {
+		Method method = resolvedMethods.get(name);
+		if (method == null && resolve(name) != null) {
+			method = resolvedMethods.get(name);
+		}
+		return method == UNRESOLVED ? null : method;
+	}
 
 	@Override
 	public List<MethodDescription> getAvailableMethods() {
@@ -202,6 +271,19 @@ public class StaticJavaMethodProvider implements SandboxableMethodProvider {
 		return descriptions;
 	}
 
+	private boolean isAllowedMethod(Method method) {
+		GlueMethod methodAnnotation = method.getAnnotation(GlueMethod.class);
+		// restricted methods are not allowed in sandbox mode
+		if (methodAnnotation != null && methodAnnotation.restricted() && sandboxed) {
+			return false;
+		}
+		Double version = methodAnnotation == null ? null : methodAnnotation.version();
+		MethodProviderClass annotation = method.getDeclaringClass().getAnnotation(MethodProviderClass.class);
+		String namespace = annotation == null || annotation.namespace() == null || annotation.namespace().isEmpty() ? method.getDeclaringClass().getName() : annotation.namespace();
+		GlueUtils.VersionRange range = GlueUtils.getVersion(namespace, method.getName());
+		return range == null || range.contains(version);
+	}
+
 	@Override
 	public boolean isSandboxed() {
 		return sandboxed;
@@ -209,7 +291,12 @@ public class StaticJavaMethodProvider implements SandboxableMethodProvider {
 
 	@Override
 	public void setSandboxed(boolean sandboxed) {
-		this.sandboxed = sandboxed;
+		if (this.sandboxed != sandboxed) {
+			this.sandboxed = sandboxed;
+			// both the filter and the class access depend on the sandbox mode
+			verdicts.clear();
+			resolvedMethods.clear();
+		}
 	}
 	
 }
\ No newline at end of file
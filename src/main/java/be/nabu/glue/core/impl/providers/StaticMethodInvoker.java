@@ -0,0 +1,145 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl.providers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Invokes a static java method through a method handle that is built once per method.
+ * It only binds arguments that need no conversion at all, for anything else {@link #bind(Object[])} returns null and the regular reflective path has to be used.
+ * That path knows all the conversion rules (lists to arrays, lambdas to interfaces,...), this class only makes the common case fast.
+ */
+public class StaticMethodInvoker {
+
+	private static Map<Class<?>, Class<?>> boxes = new HashMap<Class<?>, Class<?>>();
+
+	static {
+		boxes.put(boolean.class, Boolean.class);
+		boxes.put(byte.class, Byte.class);
+		boxes.put(short.class, Short.class);
+		boxes.put(char.class, Character.class);
+		boxes.put(int.class, Integer.class);
+		boxes.put(long.class, Long.class);
+		boxes.put(float.class, Float.class);
+		boxes.put(double.class, Double.class);
+	}
+
+	private Method method;
+	private MethodHandle handle;
+	private Class<?> [] parameterTypes;
+	// the boxed types to check instances against
+	private Class<?> [] checkTypes;
+	private Class<?> varargsType;
+	private Class<?> varargsCheckType;
+
+	private StaticMethodInvoker(Method method, MethodHandle handle) {
+		this.method = method;
+		this.handle = handle;
+		this.parameterTypes = method.getParameterTypes();
+		this.checkTypes = new Class<?>[parameterTypes.length];
+		for (int i = 0; i < parameterTypes.length; i++) {
+			checkTypes[i] = box(parameterTypes[i]);
+		}
+		if (method.isVarArgs()) {
+			varargsType = parameterTypes[parameterTypes.length - 1].getComponentType();
+			varargsCheckType = box(varargsType);
+		}
+	}
+
+	/**
+	 * Returns null if the method can not be invoked directly, for example because it is overloaded and the correct one depends on the arguments
+	 */
+	public static StaticMethodInvoker newInvoker(Method method) {
+		if (!Modifier.isStatic(method.getModifiers()) || !Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+			return null;
+		}
+		for (Method possible : method.getDeclaringClass().getMethods()) {
+			if (possible.getName().equals(method.getName()) && !possible.equals(method)) {
+				return null;
+			}
+		}
+		try {
+			MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+			if (method.isVarArgs()) {
+				handle = handle.asFixedArity();
+			}
+			int amount = method.getParameterTypes().length;
+			handle = handle.asType(MethodType.genericMethodType(amount)).asSpreader(Object[].class, amount);
+			return new StaticMethodInvoker(method, handle);
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the arguments as they should be passed to the method or null if they would need some form of conversion
+	 */
+	public Object [] bind(Object [] arguments) {
+		int fixed = varargsType == null ? parameterTypes.length : parameterTypes.length - 1;
+		if (arguments.length < fixed || (varargsType == null && arguments.length > fixed)) {
+			return null;
+		}
+		for (int i = 0; i < fixed; i++) {
+			if (!isAssignable(arguments[i], parameterTypes[i], checkTypes[i])) {
+				return null;
+			}
+		}
+		if (varargsType == null) {
+			return arguments;
+		}
+		Object [] bound = new Object[parameterTypes.length];
+		System.arraycopy(arguments, 0, bound, 0, fixed);
+		Object varargs = Array.newInstance(varargsType, arguments.length - fixed);
+		for (int i = fixed; i < arguments.length; i++) {
+			// nulls, arrays and collections may have to be expanded into the varargs
+			if (arguments[i] == null || arguments[i].getClass().isArray() || arguments[i] instanceof Iterable || !varargsCheckType.isInstance(arguments[i])) {
+				return null;
+			}
+			Array.set(varargs, i - fixed, arguments[i]);
+		}
+		bound[fixed] = varargs;
+		return bound;
+	}
+
+	private static boolean isAssignable(Object value, Class<?> type, Class<?> checkType) {
+		if (value == null) {
+			return !type.isPrimitive();
+		}
+		return checkType.isInstance(value);
+	}
+
+	public Object invoke(Object [] arguments) throws Throwable {
+		return (Object) handle.invokeExact(arguments);
+	}
+
+	private static Class<?> box(Class<?> type) {
+		return type.isPrimitive() ? boxes.get(type) : type;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+}
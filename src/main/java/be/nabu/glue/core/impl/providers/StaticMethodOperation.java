@@ -0,0 +1,101 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.impl.providers;
+
+import java.text.ParseException;
+
+import be.nabu.glue.api.ExecutionContext;
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.api.Operation;
+import be.nabu.libs.evaluator.base.BaseMethodOperation;
+import be.nabu.libs.evaluator.impl.MethodOperation;
+import be.nabu.libs.evaluator.impl.NativeOperation;
+
+/**
+ * Calls a static java method directly if the arguments match the signature.
+ * If they don't, the already evaluated arguments are handed to a regular method operation so they are not evaluated twice.
+ */
+public class StaticMethodOperation extends BaseMethodOperation<ExecutionContext> {
+
+	private StaticMethodInvoker invoker;
+	private StaticJavaMethodProvider provider;
+
+	public StaticMethodOperation(StaticMethodInvoker invoker, StaticJavaMethodProvider provider) {
+		this.invoker = invoker;
+		this.provider = provider;
+	}
+
+	@Override
+	public void finish() throws ParseException {
+		// do nothing
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object evaluate(ExecutionContext context) throws EvaluationException {
+		Object [] arguments = new Object[getParts().size() - 1];
+		for (int i = 1; i < getParts().size(); i++) {
+			Object content = getParts().get(i).getContent();
+			arguments[i - 1] = content instanceof Operation ? ((Operation<ExecutionContext>) content).evaluate(context) : content;
+		}
+		return evaluate(context, arguments);
+	}
+	
+	/**
+	 * Runs the method with arguments that have already been evaluated
+	 */
+	public Object evaluate(ExecutionContext context, Object [] arguments) throws EvaluationException {
+		Object [] bound = invoker.bind(arguments);
+		if (bound == null) {
+			return evaluateReflectively(context, arguments);
+		}
+		try {
+			return invoker.invoke(bound);
+		}
+		catch (EvaluationException e) {
+			throw e;
+		}
+		catch (Throwable e) {
+			throw new EvaluationException("Could not execute method: " + invoker.getMethod(), e);
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private Object evaluateReflectively(ExecutionContext context, Object [] arguments) throws EvaluationException {
+		MethodOperation<ExecutionContext> operation = provider.newMethodOperation();
+		operation.add(new QueryPart(getParts().get(0).getType(), getParts().get(0).getContent()));
+		for (Object argument : arguments) {
+			NativeOperation<?> nativeOperation = new NativeOperation();
+			nativeOperation.add(new QueryPart(Type.UNKNOWN, argument));
+			operation.add(new QueryPart(Type.OPERATION, nativeOperation));
+		}
+		try {
+			operation.finish();
+		}
+		catch (ParseException e) {
+			throw new EvaluationException(e);
+		}
+		return operation.evaluate(context);
+	}
+
+	public StaticMethodInvoker getInvoker() {
+		return invoker;
+	}
+}
@@ -69,14 +69,17 @@ public class DynamicScriptRepository implements GroupedScriptRepository {
 	@Override
 	public void refresh() throws IOException {
 		scripts = null;
+		ScriptRepositoryVersion.increment(this);
 	}
 
 	public void add(Script script) {
 		getScripts().put(ScriptUtils.getFullName(script), script);
+		ScriptRepositoryVersion.increment(this);
 	}
 	
 	public void remove(Script script) {
 		getScripts().remove(ScriptUtils.getFullName(script));
+		ScriptRepositoryVersion.increment(this);
 	}
 
 	@Override
@@ -0,0 +1,116 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.repositories;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.nabu.glue.api.MethodDescription;
+import be.nabu.glue.api.ParameterDescription;
+import be.nabu.glue.api.Script;
+import be.nabu.glue.impl.SimpleMethodDescription;
+import be.nabu.glue.utils.ScriptUtils;
+
+/**
+ * The namespace and name of a script are known without looking at its content, the rest of the description is only calculated when it is requested.
+ * Most lookups (e.g. resolving a method name) only check the name so the vast majority of scripts in a repository never has to be parsed until it is run.
+ * A script that can not be parsed is only detected at that point, requesting its description then throws the parse error.
+ */
+public class LazyScriptDescription extends SimpleMethodDescription {
+
+	private Script script;
+	private ScriptDescriptionCache cache;
+	private volatile MethodDescription resolved;
+	private volatile Exception failure;
+
+	public LazyScriptDescription(Script script, ScriptDescriptionCache cache) {
+		super(script.getNamespace(), script.getName(), null, new ArrayList<ParameterDescription>(), new ArrayList<ParameterDescription>());
+		this.script = script;
+		this.cache = cache;
+	}
+
+	@Override
+	public String getDescription() {
+		return resolveValid().getDescription();
+	}
+
+	@Override
+	public List<ParameterDescription> getParameters() {
+		return resolveValid().getParameters();
+	}
+
+	@Override
+	public List<ParameterDescription> getReturnValues() {
+		return resolveValid().getReturnValues();
+	}
+
+	public boolean isResolved() {
+		return resolved != null;
+	}
+
+	/**
+	 * Whether the script was resolved and could not be parsed
+	 */
+	public boolean isFailed() {
+		return failure != null;
+	}
+
+	private MethodDescription resolveValid() {
+		MethodDescription description = resolve();
+		if (failure != null) {
+			throw new IllegalStateException("Could not parse the script: " + script.getNamespace() + "." + script.getName(), failure);
+		}
+		return description;
+	}
+
+	public MethodDescription resolve() {
+		if (resolved == null) {
+			synchronized(this) {
+				if (resolved == null) {
+					MethodDescription description = null;
+					try {
+						// if we have a persistent cache, we don't need to parse scripts that have not changed since the last time
+						String key = cache != null && script instanceof ResourceScript ? cache.getKey((ResourceScript) script) : null;
+						description = key == null ? null : cache.get(key);
+						if (description == null) {
+							description = new SimpleMethodDescription(script.getNamespace(), script.getName(),
+								script.getRoot() == null || script.getRoot().getContext() == null ? null : script.getRoot().getContext().getComment(),
+								script.getRoot() == null ? new ArrayList<ParameterDescription>() : ScriptUtils.getInputs(script),
+								script.getRoot() == null ? new ArrayList<ParameterDescription>() : ScriptUtils.getOutputs(script));
+							if (key != null) {
+								cache.put(key, description);
+							}
+						}
+					}
+					catch (Exception e) {
+						System.err.println("Could not get description for: " + script.getNamespace() + "." + script.getName());
+						e.printStackTrace();
+						failure = e;
+						description = new SimpleMethodDescription(script.getNamespace(), script.getName(), null, new ArrayList<ParameterDescription>(), new ArrayList<ParameterDescription>());
+					}
+					resolved = description;
+				}
+			}
+		}
+		return resolved;
+	}
+
+	public Script getScript() {
+		return script;
+	}
+}
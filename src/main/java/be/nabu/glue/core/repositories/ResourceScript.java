@@ -30,6 +30,7 @@ import be.nabu.glue.api.ExecutorGroup;
 import be.nabu.glue.api.Parser;
 import be.nabu.glue.api.Script;
 import be.nabu.glue.core.api.ResourceScriptRepository;
+import be.nabu.glue.core.impl.parsers.GlueParser;
 import be.nabu.libs.resources.api.ReadableResource;
 import be.nabu.libs.resources.api.Resource;
 import be.nabu.libs.resources.api.ResourceContainer;
@@ -42,12 +43,12 @@ import be.nabu.utils.io.api.ReadableContainer;
 public class ResourceScript implements Script {
 	
 	private ResourceScriptRepository repository;
-	private ExecutorGroup root;
+	private volatile ExecutorGroup root;
 	private String name;
 	private String namespace;
 	private Parser parser;
 	private Charset charset;
-	private ReadableResource resource;
+	private volatile ReadableResource resource;
 	private Date lastModified;
 	private List<String> resources;
 
@@ -81,18 +82,36 @@ public class ResourceScript implements Script {
 
 	@Override
 	public ExecutorGroup getRoot() throws IOException, ParseException {
+		// the script is only parsed when it is first needed, this can be from multiple threads at once
+		ExecutorGroup root = this.root;
 		if (root == null) {
-			ReadableContainer<ByteBuffer> readable = resource.getReadable();
-			try {
-				root = getParser().parse(IOUtils.toReader(IOUtils.wrapReadable(readable, charset)));
+			boolean parsed = false;
+			synchronized(this) {
+				root = this.root;
+				if (root == null) {
+					root = parse(resource);
+					this.root = root;
+					parsed = true;
+				}
 			}
-			finally {
-				readable.close();
+			// linking can parse other scripts, this is done outside of the lock so scripts that call one another can not deadlock
+			if (parsed && GlueParser.LINK) {
+				GlueParser.link(root);
 			}
 		}
 		return root;
 	}
 
+	private ExecutorGroup parse(ReadableResource resource) throws IOException, ParseException {
+		ReadableContainer<ByteBuffer> readable = resource.getReadable();
+		try {
+			return getParser().parse(IOUtils.toReader(IOUtils.wrapReadable(readable, charset)));
+		}
+		finally {
+			readable.close();
+		}
+	}
+
 	@Override
 	public Charset getCharset() {
 		return charset;
@@ -131,6 +150,19 @@ public class ResourceScript implements Script {
 	}
 	
 	public boolean refresh() {
+		resetResources();
+		if (resource instanceof TimestampedResource) {
+			Date newLastModified = ((TimestampedResource) resource).getLastModified();
+			if (newLastModified.after(lastModified)) {
+				root = null;
+				lastModified = newLastModified;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void resetResources() {
 		try {
 			// refresh the resources folder just in case something has changed
 			Resource resourceFolder = repository.resolve(getPath(false));
@@ -143,15 +175,32 @@ public class ResourceScript implements Script {
 		catch (IOException e) {
 			// ignore
 		}
+	}
+	
+	/**
+	 * Parses the (changed) resource and swaps in the new root, executions that are already running keep using the old one.
+	 * If the new version can not be parsed, the root is cleared so the error surfaces when the script is next used.
+	 */
+	boolean reload(ReadableResource resource) {
+		this.resource = resource;
+		resetResources();
 		if (resource instanceof TimestampedResource) {
-			Date newLastModified = ((TimestampedResource) resource).getLastModified();
-			if (newLastModified.after(lastModified)) {
-				root = null;
-				lastModified = newLastModified;
-				return true;
+			lastModified = ((TimestampedResource) resource).getLastModified();
+		}
+		try {
+			ExecutorGroup root = parse(resource);
+			this.root = root;
+			if (GlueParser.LINK) {
+				GlueParser.link(root);
 			}
+			return true;
+		}
+		catch (Exception e) {
+			System.err.println("Could not reload script: " + this);
+			e.printStackTrace();
+			root = null;
+			return false;
 		}
-		return false;
 	}
 
 	@Override
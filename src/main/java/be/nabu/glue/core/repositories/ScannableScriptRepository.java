@@ -23,10 +23,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveTask;
 
 import be.nabu.glue.api.MethodDescription;
-import be.nabu.glue.api.ParameterDescription;
 import be.nabu.glue.api.Parser;
 import be.nabu.glue.api.ParserProvider;
 import be.nabu.glue.api.Script;
@@ -34,7 +36,7 @@ import be.nabu.glue.api.ScriptRepository;
 import be.nabu.glue.api.ScriptRepositoryWithDescriptions;
 import be.nabu.glue.core.api.GroupedScriptRepository;
 import be.nabu.glue.core.api.ResourceScriptRepository;
-import be.nabu.glue.impl.SimpleMethodDescription;
+import be.nabu.glue.core.impl.ParallelPool;
 import be.nabu.glue.utils.ScriptUtils;
 import be.nabu.libs.resources.ResourceUtils;
 import be.nabu.libs.resources.api.ReadableResource;
@@ -46,12 +48,16 @@ public class ScannableScriptRepository implements ResourceScriptRepository, Grou
 
 	private ParserProvider parserProvider;
 	private ResourceContainer<?> root;
-	private Map<String, Script> scripts;
+	// the scripts and their descriptions are always replaced together
+	private volatile Snapshot snapshot;
 	private Charset charset;
 	private ScriptRepository parent;
 	private boolean recurse;
 	private String group;
-	private Map<Script, MethodDescription> descriptions;
+	private boolean parallel = Boolean.parseBoolean(System.getProperty("glue.scan.parallel", "false"));
+	private boolean preload = Boolean.parseBoolean(System.getProperty("glue.scan.preload", "false"));
+	private ScriptRepositoryWatcher watcher;
+	private ScriptDescriptionCache descriptionCache = ScriptDescriptionCache.getDefault();
 
 	public ScannableScriptRepository(ScriptRepository parent, ResourceContainer<?> root, ParserProvider parserProvider, Charset charset) throws IOException {
 		this(parent, root, parserProvider, charset, true);
@@ -64,6 +70,9 @@ public class ScannableScriptRepository implements ResourceScriptRepository, Grou
 		this.charset = charset;
 		this.recurse = recurse;
 		refresh();
+		if (Boolean.parseBoolean(System.getProperty("glue.scan.watch", "false"))) {
+			watch();
+		}
 	}
 	
 	private Map<String, Script> scan(ResourceContainer<?> folder, String namespace, Map<Script, MethodDescription> descriptions) throws IOException {
@@ -76,30 +85,103 @@ public class ScannableScriptRepository implements ResourceScriptRepository, Grou
 				scripts.putAll(scan((ResourceContainer<?>) child, namespace == null ? child.getName() : namespace + "." + child.getName(), descriptions));
 			}
 			else {
-				Parser parser = parserProvider.newParser(this, child.getName());
-				if (parser != null) {
-					String childName = (namespace == null ? null : namespace + ".") + child.getName().replaceAll("\\.[^.]+$", ""); 
-					if (this.scripts != null && this.scripts.get(childName) instanceof ResourceScript) {
-						// just take the original script, this is a performance optimization bypassing the need to always reparse/recalculate all scripts
-						scripts.put(childName, this.scripts.get(childName));
-						// but do trigger a refresh on it
-						Script existing = scripts.get(childName);
-						if (((ResourceScript) existing).refresh() || this.descriptions == null || !this.descriptions.containsKey(existing)) {
-							buildDescription(descriptions, existing);
-						}
-						else {
-							descriptions.put(existing, this.descriptions.get(existing));
-						}
+				scan(child, namespace, scripts, descriptions);
+			}
+		}
+		return scripts;
+	}
+	
+	private void scan(Resource child, String namespace, Map<String, Script> scripts, Map<Script, MethodDescription> descriptions) throws IOException {
+		Parser parser = parserProvider.newParser(this, child.getName());
+		if (parser != null) {
+			String childName = (namespace == null ? null : namespace + ".") + child.getName().replaceAll("\\.[^.]+$", ""); 
+			Snapshot previous = this.snapshot;
+			if (previous != null && previous.scripts.get(childName) instanceof ResourceScript) {
+				// just take the original script, this is a performance optimization bypassing the need to always reparse/recalculate all scripts
+				scripts.put(childName, previous.scripts.get(childName));
+				// but do trigger a refresh on it
+				Script existing = scripts.get(childName);
+				if (((ResourceScript) existing).refresh() || !previous.descriptions.containsKey(existing)) {
+					buildDescription(descriptions, existing);
+				}
+				else {
+					descriptions.put(existing, previous.descriptions.get(existing));
+				}
+			}
+			else if (child instanceof ReadableResource) {
+				Script script = new ResourceScript(this, charset, namespace, child.getName(), (ReadableResource) child, parser);
+				scripts.put(ScriptUtils.getFullName(script), script);
+				buildDescription(descriptions, script);
+			}
+		}
+	}
+	
+	private static class Snapshot {
+		private final Map<String, Script> scripts;
+		private final Map<Script, MethodDescription> descriptions;
+		
+		public Snapshot(Map<String, Script> scripts, Map<Script, MethodDescription> descriptions) {
+			this.scripts = scripts;
+			this.descriptions = descriptions;
+		}
+	}
+	
+	/**
+	 * Scans a single folder, every subfolder is forked as a separate task and the results are merged when they are joined
+	 */
+	private class ScanTask extends RecursiveTask<Map<String, Script>> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private ResourceContainer<?> folder;
+		private String namespace;
+		private Map<Script, MethodDescription> descriptions;
+
+		public ScanTask(ResourceContainer<?> folder, String namespace, Map<Script, MethodDescription> descriptions) {
+			this.folder = folder;
+			this.namespace = namespace;
+			this.descriptions = descriptions;
+		}
+
+		@Override
+		protected Map<String, Script> compute() {
+			try {
+				Map<String, Script> scripts = new HashMap<String, Script>();
+				if (folder instanceof CacheableResource) {
+					((CacheableResource) folder).resetCache();
+				}
+				List<ScanTask> tasks = new ArrayList<ScanTask>();
+				for (Resource child : folder) {
+					if (child instanceof ResourceContainer && recurse) {
+						ScanTask task = new ScanTask((ResourceContainer<?>) child, namespace == null ? child.getName() : namespace + "." + child.getName(), descriptions);
+						task.fork();
+						tasks.add(task);
 					}
-					else if (child instanceof ReadableResource) {
-						Script script = new ResourceScript(this, charset, namespace, child.getName(), (ReadableResource) child, parser);
-						scripts.put(ScriptUtils.getFullName(script), script);
-						buildDescription(descriptions, script);
+					else {
+						scan(child, namespace, scripts, descriptions);
+					}
+				}
+				// resolve the descriptions of this folder while the subfolders are being scanned by other workers
+				if (preload) {
+					for (Script script : scripts.values()) {
+						preload(descriptions.get(script));
 					}
 				}
+				for (ScanTask task : tasks) {
+					scripts.putAll(task.join());
+				}
+				return scripts;
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
 			}
 		}
-		return scripts;
+	}
+	
+	private static void preload(MethodDescription description) {
+		if (description instanceof LazyScriptDescription) {
+			((LazyScriptDescription) description).resolve();
+		}
 	}
 	
 	@Override
@@ -113,7 +195,8 @@ public class ScannableScriptRepository implements ResourceScriptRepository, Grou
 	}
 
 	private Map<String, Script> getScripts() {
-		return scripts;
+		Snapshot snapshot = this.snapshot;
+		return snapshot == null ? null : snapshot.scripts;
 	}
 
 	@Override
@@ -136,12 +219,125 @@ public class ScannableScriptRepository implements ResourceScriptRepository, Grou
 	}
 
 	@Override
-	public void refresh() throws IOException {
-		Map<Script, MethodDescription> descriptions = new HashMap<Script, MethodDescription>();
-		scripts = scan(root, null, descriptions);
-		this.descriptions = descriptions;
+	public synchronized void refresh() throws IOException {
+		Map<Script, MethodDescription> descriptions;
+		Map<String, Script> scripts;
+		if (parallel) {
+			descriptions = new ConcurrentHashMap<Script, MethodDescription>();
+			try {
+				scripts = ParallelPool.getPool().invoke(new ScanTask(root, null, descriptions));
+			}
+			catch (RuntimeException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw e;
+			}
+		}
+		else {
+			descriptions = new HashMap<Script, MethodDescription>();
+			scripts = scan(root, null, descriptions);
+			if (preload) {
+				for (MethodDescription description : descriptions.values()) {
+					preload(description);
+				}
+			}
+		}
+		// swap both at once so readers never see a partially scanned repository
+		this.snapshot = new Snapshot(scripts, descriptions);
+		ScriptRepositoryVersion.increment(this);
 	}
 
+	/**
+	 * Only updates the scripts at the given paths (relative to the root), a path can point to a script, a folder or something that no longer exists.
+	 * Unlike a full refresh this does not touch any other script in the repository.
+	 */
+	public synchronized void refresh(Collection<String> paths) throws IOException {
+		Map<String, Script> scripts = new HashMap<String, Script>(this.snapshot.scripts);
+		Map<Script, MethodDescription> descriptions = new HashMap<Script, MethodDescription>(this.snapshot.descriptions);
+		for (String path : paths) {
+			String [] parts = path.split("/");
+			ResourceContainer<?> folder = root;
+			String namespace = null;
+			for (int i = 0; i < parts.length - 1 && folder != null; i++) {
+				if (folder instanceof CacheableResource) {
+					((CacheableResource) folder).resetCache();
+				}
+				Resource child = folder.getChild(parts[i]);
+				folder = child instanceof ResourceContainer ? (ResourceContainer<?>) child : null;
+				namespace = namespace == null ? parts[i] : namespace + "." + parts[i];
+			}
+			if (folder instanceof CacheableResource) {
+				((CacheableResource) folder).resetCache();
+			}
+			String name = parts[parts.length - 1];
+			String fullName = (namespace == null ? "" : namespace + ".") + name.replaceAll("\\.[^.]+$", "");
+			Resource resource = folder == null ? null : folder.getChild(name);
+			// the folder might be the resource folder of a script
+			if (namespace != null && scripts.get(namespace) instanceof ResourceScript) {
+				((ResourceScript) scripts.get(namespace)).resetResources();
+			}
+			if (resource instanceof ResourceContainer) {
+				if (recurse) {
+					remove(scripts, descriptions, fullName + ".");
+					scripts.putAll(scan((ResourceContainer<?>) resource, fullName, descriptions));
+				}
+			}
+			else if (resource == null) {
+				// it can be a deleted script or a deleted folder
+				if (parserProvider.newParser(this, name) != null) {
+					descriptions.remove(scripts.remove(fullName));
+				}
+				remove(scripts, descriptions, fullName + ".");
+			}
+			else if (resource instanceof ReadableResource) {
+				Parser parser = parserProvider.newParser(this, name);
+				if (parser != null) {
+					Script existing = scripts.get(fullName);
+					if (existing instanceof ResourceScript) {
+						((ResourceScript) existing).reload((ReadableResource) resource);
+						buildDescription(descriptions, existing);
+					}
+					else {
+						Script script = new ResourceScript(this, charset, namespace, name, (ReadableResource) resource, parser);
+						scripts.put(ScriptUtils.getFullName(script), script);
+						buildDescription(descriptions, script);
+					}
+				}
+			}
+		}
+		this.snapshot = new Snapshot(scripts, descriptions);
+		ScriptRepositoryVersion.increment(this);
+	}
+	
+	private void remove(Map<String, Script> scripts, Map<Script, MethodDescription> descriptions, String prefix) {
+		Iterator<Map.Entry<String, Script>> iterator = scripts.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Script> entry = iterator.next();
+			if (entry.getKey().startsWith(prefix)) {
+				descriptions.remove(entry.getValue());
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Watches the file system for changes and only refreshes the affected scripts, this is only possible for repositories on the local file system
+	 */
+	public synchronized boolean watch() throws IOException {
+		if (watcher == null) {
+			watcher = ScriptRepositoryWatcher.watch(this);
+		}
+		return watcher != null;
+	}
+	
+	public synchronized void unwatch() throws IOException {
+		if (watcher != null) {
+			watcher.close();
+			watcher = null;
+		}
+	}
+	
 	@Override
 	public String getGroup() {
 		return group;
@@ -151,26 +347,53 @@ public class ScannableScriptRepository implements ResourceScriptRepository, Grou
 		this.group = group;
 	}
 
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public boolean isPreload() {
+		return preload;
+	}
+
+	public void setPreload(boolean preload) {
+		this.preload = preload;
+	}
+
+	public ScriptDescriptionCache getDescriptionCache() {
+		return descriptionCache;
+	}
+
+	public void setDescriptionCache(ScriptDescriptionCache descriptionCache) {
+		this.descriptionCache = descriptionCache;
+	}
+
 	public ResourceContainer<?> getRoot() {
 		return root;
 	}
 
 	@Override
 	public Collection<MethodDescription> getDescriptions() {
-		return descriptions == null ? new ArrayList<MethodDescription>() : descriptions.values();
+		Snapshot snapshot = this.snapshot;
+		if (snapshot == null) {
+			return new ArrayList<MethodDescription>();
+		}
+		// scripts that are known to be unparseable are not available as methods
+		List<MethodDescription> available = new ArrayList<MethodDescription>();
+		for (MethodDescription description : snapshot.descriptions.values()) {
+			if (!(description instanceof LazyScriptDescription) || !((LazyScriptDescription) description).isFailed()) {
+				available.add(description);
+			}
+		}
+		return available;
 	}
 
 	private void buildDescription(Map<Script, MethodDescription> descriptions, Script script) {
-		try {
-			descriptions.put(script, new SimpleMethodDescription(script.getNamespace(), script.getName(), 
-				script.getRoot() == null || script.getRoot().getContext() == null ? null : script.getRoot().getContext().getComment(), 
-				script.getRoot() == null ? new ArrayList<ParameterDescription>() : ScriptUtils.getInputs(script), 
-				script.getRoot() == null ? new ArrayList<ParameterDescription>() : ScriptUtils.getOutputs(script)));
-		}
-		catch (Exception e) {
-			System.err.println("Could not get description for: " + script.getNamespace() + "." + script.getName());
-			e.printStackTrace();
-		}
+		// the description is only filled in when someone actually needs more than the name
+		descriptions.put(script, new LazyScriptDescription(script, descriptionCache));
 	}
 
 }
@@ -0,0 +1,300 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.repositories;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.nabu.glue.api.MethodDescription;
+import be.nabu.glue.api.ParameterDescription;
+import be.nabu.glue.impl.SimpleMethodDescription;
+import be.nabu.glue.impl.SimpleParameterDescription;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+
+/**
+ * Persists the method descriptions of scripts on the file system so a (re)start does not have to parse every script to know its signature.
+ * Entries are keyed by a hash of the script content and the settings that influence the parser, an edited script simply gets a new key.
+ * The executor trees themselves are not persisted: they consist of evaluator operations and method providers that are bound to the running instance.
+ */
+public class ScriptDescriptionCache {
+
+	// version 2 writes strings as a length followed by the bytes, writeUTF is limited to 64kb
+	private static final int FORMAT_VERSION = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte NULL = 0, STRING = 1, BOOLEAN = 2, LONG = 3, INTEGER = 4, DOUBLE = 5, DECIMAL = 6, BIG_INTEGER = 7;
+
+	private File directory;
+
+	public ScriptDescriptionCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * The default cache is only available if the system property "glue.cache" points to a directory
+	 */
+	public static ScriptDescriptionCache getDefault() {
+		return DefaultHolder.CACHE;
+	}
+
+	// the class is only initialized on first access which makes the lazy creation thread safe
+	private static class DefaultHolder {
+		private static final ScriptDescriptionCache CACHE = newDefault();
+
+		private static ScriptDescriptionCache newDefault() {
+			String path = System.getProperty("glue.cache");
+			return path == null || path.trim().isEmpty() ? null : new ScriptDescriptionCache(new File(path.trim()));
+		}
+	}
+
+	/**
+	 * The key is based on the content of the script and anything that might change the outcome of parsing it
+	 */
+	public String getKey(ResourceScript script) throws IOException {
+		ReadableContainer<ByteBuffer> readable = script.getResource().getReadable();
+		byte [] content;
+		try {
+			content = IOUtils.toBytes(readable);
+		}
+		finally {
+			readable.close();
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(content);
+			digest.update(getParserSettings(script).getBytes(UTF8));
+			byte [] hash = digest.digest();
+			StringBuilder string = new StringBuilder();
+			for (int i = 0; i < hash.length; ++i) {
+				string.append(Integer.toHexString((hash[i] & 0xFF) | 0x100).substring(1,3));
+			}
+			return string.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private String getParserSettings(ResourceScript script) {
+		return FORMAT_VERSION
+			+ ";" + (script.getParser() == null ? null : script.getParser().getClass().getName())
+			+ ";" + script.getCharset()
+			+ ";" + script.getNamespace() + "." + script.getName()
+			+ ";" + System.getProperty("glue.defaultHeaderToScript", "false")
+			+ ";" + System.getProperty("version");
+	}
+
+	public MethodDescription get(String key) {
+		File file = new File(directory, key + ".desc");
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (input.readInt() != FORMAT_VERSION) {
+					return null;
+				}
+				String namespace = readString(input);
+				String name = readString(input);
+				String description = readString(input);
+				List<ParameterDescription> inputs = readParameters(input);
+				List<ParameterDescription> outputs = readParameters(input);
+				return new SimpleMethodDescription(namespace, name, description, inputs, outputs);
+			}
+			finally {
+				input.close();
+			}
+		}
+		catch (Exception e) {
+			// a corrupt entry is simply ignored, it will be overwritten with a fresh one
+			return null;
+		}
+	}
+
+	public void put(String key, MethodDescription description) {
+		if (!isCacheable(description.getParameters()) || !isCacheable(description.getReturnValues())) {
+			return;
+		}
+		if (!directory.exists() && !directory.mkdirs()) {
+			return;
+		}
+		File target = new File(directory, key + ".desc");
+		File temporary = new File(directory, key + ".desc." + Thread.currentThread().getId() + ".tmp");
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				output.writeInt(FORMAT_VERSION);
+				writeString(output, description.getNamespace());
+				writeString(output, description.getName());
+				writeString(output, description.getDescription());
+				writeParameters(output, description.getParameters());
+				writeParameters(output, description.getReturnValues());
+			}
+			finally {
+				output.close();
+			}
+			// the rename makes sure concurrent readers never see a partial entry
+			if (!temporary.renameTo(target)) {
+				temporary.delete();
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Could not cache the description of " + description.getNamespace() + "." + description.getName() + " in " + directory);
+			e.printStackTrace();
+			temporary.delete();
+		}
+	}
+
+	private boolean isCacheable(List<ParameterDescription> parameters) {
+		if (parameters != null) {
+			for (ParameterDescription parameter : parameters) {
+				Object defaultValue = parameter.getDefaultValue();
+				if (defaultValue != null && !(defaultValue instanceof String) && !(defaultValue instanceof Boolean) && !(defaultValue instanceof Long)
+						&& !(defaultValue instanceof Integer) && !(defaultValue instanceof Double) && !(defaultValue instanceof BigDecimal) && !(defaultValue instanceof BigInteger)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void writeParameters(DataOutputStream output, List<ParameterDescription> parameters) throws IOException {
+		output.writeInt(parameters == null ? 0 : parameters.size());
+		if (parameters != null) {
+			for (ParameterDescription parameter : parameters) {
+				writeString(output, parameter.getName());
+				writeString(output, parameter.getDescription());
+				writeString(output, parameter.getType());
+				output.writeBoolean(parameter.isVarargs());
+				output.writeBoolean(parameter.isList());
+				writeValue(output, parameter.getDefaultValue());
+			}
+		}
+	}
+
+	private List<ParameterDescription> readParameters(DataInputStream input) throws IOException {
+		int amount = input.readInt();
+		List<ParameterDescription> parameters = new ArrayList<ParameterDescription>(amount);
+		for (int i = 0; i < amount; i++) {
+			String name = readString(input);
+			String description = readString(input);
+			String type = readString(input);
+			boolean varargs = input.readBoolean();
+			boolean list = input.readBoolean();
+			Object defaultValue = readValue(input);
+			parameters.add(new SimpleParameterDescription(name, description, type, varargs).setDefaultValue(defaultValue).setList(list));
+		}
+		return parameters;
+	}
+
+	private void writeValue(DataOutputStream output, Object value) throws IOException {
+		if (value == null) {
+			output.writeByte(NULL);
+		}
+		else if (value instanceof String) {
+			output.writeByte(STRING);
+			writeText(output, (String) value);
+		}
+		else if (value instanceof Boolean) {
+			output.writeByte(BOOLEAN);
+			output.writeBoolean((Boolean) value);
+		}
+		else if (value instanceof Long) {
+			output.writeByte(LONG);
+			output.writeLong((Long) value);
+		}
+		else if (value instanceof Integer) {
+			output.writeByte(INTEGER);
+			output.writeInt((Integer) value);
+		}
+		else if (value instanceof Double) {
+			output.writeByte(DOUBLE);
+			output.writeDouble((Double) value);
+		}
+		else if (value instanceof BigDecimal) {
+			output.writeByte(DECIMAL);
+			writeText(output, value.toString());
+		}
+		else if (value instanceof BigInteger) {
+			output.writeByte(BIG_INTEGER);
+			writeText(output, value.toString());
+		}
+		else {
+			throw new IOException("Can not persist default value: " + value);
+		}
+	}
+
+	private Object readValue(DataInputStream input) throws IOException {
+		byte type = input.readByte();
+		switch (type) {
+			case NULL: return null;
+			case STRING: return readText(input);
+			case BOOLEAN: return input.readBoolean();
+			case LONG: return input.readLong();
+			case INTEGER: return input.readInt();
+			case DOUBLE: return input.readDouble();
+			case DECIMAL: return new BigDecimal(readText(input));
+			case BIG_INTEGER: return new BigInteger(readText(input));
+		}
+		throw new IOException("Unknown value type: " + type);
+	}
+
+	private void writeString(DataOutputStream output, String value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null) {
+			writeText(output, value);
+		}
+	}
+
+	private String readString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? readText(input) : null;
+	}
+
+	private void writeText(DataOutputStream output, String value) throws IOException {
+		byte [] bytes = value.getBytes(UTF8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private String readText(DataInputStream input) throws IOException {
+		byte [] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+}
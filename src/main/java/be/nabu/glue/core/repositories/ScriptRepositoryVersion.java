@@ -0,0 +1,90 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.repositories;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.nabu.glue.api.ScriptRepository;
+
+/**
+ * Keeps track of changes to the content of a repository, a change is also a change for all the parents of that repository.
+ * Anything that caches information derived from the available scripts of a repository can compare the version it was built for to the current one.
+ * Loading a script that already existed (e.g. in a targeted repository) is not a change.
+ */
+public class ScriptRepositoryVersion {
+
+	private static Map<ScriptRepository, AtomicLong> counters = new WeakHashMap<ScriptRepository, AtomicLong>();
+
+	// the counters of the repository and all its parents
+	private List<AtomicLong> chain = new ArrayList<AtomicLong>();
+
+	private ScriptRepositoryVersion(ScriptRepository repository) {
+		for (ScriptRepository parent : getChain(repository)) {
+			chain.add(getCounter(parent));
+		}
+	}
+
+	/**
+	 * The version of the given repository, this should be retrieved once and kept
+	 */
+	public static ScriptRepositoryVersion of(ScriptRepository repository) {
+		return new ScriptRepositoryVersion(repository);
+	}
+
+	public long get() {
+		long version = 0;
+		for (AtomicLong counter : chain) {
+			version += counter.get();
+		}
+		return version;
+	}
+
+	public static void increment(ScriptRepository repository) {
+		for (ScriptRepository parent : getChain(repository)) {
+			getCounter(parent).incrementAndGet();
+		}
+	}
+
+	private static AtomicLong getCounter(ScriptRepository repository) {
+		synchronized(counters) {
+			AtomicLong counter = counters.get(repository);
+			if (counter == null) {
+				counter = new AtomicLong();
+				counters.put(repository, counter);
+			}
+			return counter;
+		}
+	}
+
+	private static List<ScriptRepository> getChain(ScriptRepository repository) {
+		List<ScriptRepository> chain = new ArrayList<ScriptRepository>();
+		Set<ScriptRepository> visited = Collections.newSetFromMap(new IdentityHashMap<ScriptRepository, Boolean>());
+		while (repository != null && visited.add(repository)) {
+			chain.add(repository);
+			repository = repository.getParent();
+		}
+		return chain;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core.repositories;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import be.nabu.libs.resources.ResourceUtils;
+
+/**
+ * Watches the folders of a file based repository and feeds the changed paths to {@link ScannableScriptRepository#refresh(java.util.Collection)}.
+ * Events that arrive in quick succession (e.g. an editor that writes a file in multiple steps) are bundled into a single refresh.
+ */
+public class ScriptRepositoryWatcher implements Runnable, Closeable {
+
+	private ScannableScriptRepository repository;
+	private Path root;
+	private WatchService service;
+	private Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+	private Thread thread;
+	private long delay = Long.parseLong(System.getProperty("glue.scan.watchDelay", "100"));
+	private volatile boolean closed;
+
+	ScriptRepositoryWatcher(ScannableScriptRepository repository, Path root) {
+		this.repository = repository;
+		this.root = root;
+	}
+
+	/**
+	 * Returns null if the repository is not on the local file system
+	 */
+	public static ScriptRepositoryWatcher watch(ScannableScriptRepository repository) throws IOException {
+		URI uri;
+		try {
+			uri = ResourceUtils.getURI(repository.getRoot());
+		}
+		catch (Exception e) {
+			return null;
+		}
+		if (uri == null || !"file".equals(uri.getScheme())) {
+			return null;
+		}
+		ScriptRepositoryWatcher watcher = new ScriptRepositoryWatcher(repository, Paths.get(uri));
+		watcher.start();
+		return watcher;
+	}
+
+	void start() throws IOException {
+		service = FileSystems.getDefault().newWatchService();
+		register(root);
+		thread = new Thread(this, "glue-watcher-" + root.getFileName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void register(Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				keys.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Override
+	public void run() {
+		while (!closed) {
+			try {
+				Set<String> paths = new LinkedHashSet<String>();
+				boolean overflow = process(service.take(), paths);
+				// bundle whatever else comes in shortly after
+				WatchKey key;
+				while ((key = service.poll(delay, TimeUnit.MILLISECONDS)) != null) {
+					overflow |= process(key, paths);
+				}
+				if (overflow) {
+					repository.refresh();
+				}
+				else if (!paths.isEmpty()) {
+					repository.refresh(paths);
+				}
+			}
+			catch (ClosedWatchServiceException e) {
+				break;
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+			catch (Exception e) {
+				System.err.println("Could not refresh repository " + root);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private boolean process(WatchKey key, Set<String> paths) throws IOException {
+		boolean overflow = false;
+		Path directory = keys.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+				overflow = true;
+				continue;
+			}
+			Path path = directory.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				register(path);
+			}
+			paths.add(getRelativePath(path));
+		}
+		if (!key.reset()) {
+			keys.remove(key);
+		}
+		return overflow;
+	}
+
+	private String getRelativePath(Path path) {
+		StringBuilder builder = new StringBuilder();
+		for (Path part : root.relativize(path)) {
+			if (builder.length() > 0) {
+				builder.append("/");
+			}
+			builder.append(part.toString());
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		service.close();
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+}
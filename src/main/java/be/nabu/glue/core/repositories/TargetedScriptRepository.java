@@ -23,9 +23,11 @@ import java.nio.charset.Charset;
 import java.security.Principal;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import be.nabu.glue.api.Parser;
 import be.nabu.glue.api.ParserProvider;
@@ -42,7 +44,15 @@ public class TargetedScriptRepository implements ResourceScriptRepository, Group
 
 	private URI base;
 	private String[] extensions;
-	private Map<String, Script> scripts = new HashMap<String, Script>();
+	private Map<String, Script> scripts = new ConcurrentHashMap<String, Script>();
+	private static final int MAX_MISSES = Integer.parseInt(System.getProperty("glue.repository.missCacheSize", "1000"));
+	@SuppressWarnings("serial")
+	private Map<String, Boolean> misses = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_MISSES;
+		}
+	});
 	private ResourceFactory resourceFactory = ResourceFactory.getInstance();
 	private Principal principal;
 	private ParserProvider parserProvider;
@@ -66,7 +76,8 @@ public class TargetedScriptRepository implements ResourceScriptRepository, Group
 
 	@Override
 	public Script getScript(String name) throws IOException, ParseException {
-		if (!scripts.containsKey(name)) {
+		Script script = scripts.get(name);
+		if (script == null && !misses.containsKey(name)) {
 			for (String extension : extensions) {
 				String path = name.replace('.', '/') + "." + extension;
 				URI child = URIUtils.getChild(base, path);
@@ -74,12 +85,21 @@ public class TargetedScriptRepository implements ResourceScriptRepository, Group
 				if (resource != null) {
 					Parser parser = parserProvider.newParser(this, path);
 					int index = name.lastIndexOf('.');
-					scripts.put(name, new ResourceScript(this, charset, index >= 0 ? name.substring(0, index) : null, resource.getName(), (ReadableResource) resource, parser));
+					script = new ResourceScript(this, charset, index >= 0 ? name.substring(0, index) : null, resource.getName(), (ReadableResource) resource, parser);
+					// another thread may have loaded it at the same time
+					Script existing = scripts.putIfAbsent(name, script);
+					if (existing != null) {
+						script = existing;
+					}
 					break;
 				}
 			}
+			// remember that there is no such script, most lookups are for methods that are not scripts at all
+			if (script == null) {
+				misses.put(name, true);
+			}
 		}
-		return scripts.get(name);
+		return script;
 	}
 
 	@Override
@@ -100,6 +120,8 @@ public class TargetedScriptRepository implements ResourceScriptRepository, Group
 	@Override
 	public void refresh() throws IOException {
 		scripts.clear();
+		misses.clear();
+		ScriptRepositoryVersion.increment(this);
 	}
 
 	@Override
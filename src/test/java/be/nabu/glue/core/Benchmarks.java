@@ -0,0 +1,350 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+import be.nabu.glue.api.ExecutionContext;
+import be.nabu.glue.api.Script;
+import be.nabu.glue.api.ScriptRepository;
+import be.nabu.glue.core.api.Lambda;
+import be.nabu.glue.core.impl.ClosureMap;
+import be.nabu.glue.core.impl.LambdaMethodProvider;
+import be.nabu.glue.core.impl.LambdaMethodProvider.LambdaExecutionOperation;
+import be.nabu.glue.core.impl.ParallelPool;
+import be.nabu.glue.core.impl.methods.v2.MathMethods;
+import be.nabu.glue.core.impl.methods.v2.SeriesMethods;
+import be.nabu.glue.core.impl.parsers.GlueParserProvider;
+import be.nabu.glue.core.impl.providers.StaticJavaMethodProvider;
+import be.nabu.glue.core.repositories.LazyScriptDescription;
+import be.nabu.glue.core.repositories.ScannableScriptRepository;
+import be.nabu.glue.core.repositories.ScriptDescriptionCache;
+import be.nabu.glue.core.repositories.TargetedScriptRepository;
+import be.nabu.glue.impl.SimpleExecutionEnvironment;
+import be.nabu.glue.utils.ScriptRuntime;
+import be.nabu.libs.evaluator.EvaluationException;
+import be.nabu.libs.evaluator.QueryPart;
+import be.nabu.libs.evaluator.QueryPart.Type;
+import be.nabu.libs.evaluator.impl.NativeOperation;
+import be.nabu.libs.resources.ResourceFactory;
+import be.nabu.libs.resources.api.ResourceContainer;
+
+/**
+ * A simple timing harness, it is not a unit test so it does not run with the build.
+ * Most settings are only read once so every benchmark should be run in a new JVM: java be.nabu.glue.core.Benchmarks pool
+ * The amount of runs can be set with -Dbenchmark.runs, the first runs include the warm up of the JVM.
+ */
+public class Benchmarks {
+
+	private static final int RUNS = Integer.parseInt(System.getProperty("benchmark.runs", "5"));
+	private static final int SCRIPTS = Integer.parseInt(System.getProperty("benchmark.scripts", "500"));
+	private static final int TREE = Integer.parseInt(System.getProperty("benchmark.tree", "5000"));
+	private static final int RECORDS = Integer.parseInt(System.getProperty("benchmark.records", "1000000"));
+	private static final int LAMBDAS = Integer.parseInt(System.getProperty("benchmark.lambdas", "1000000"));
+	private static final int COPIES = Integer.parseInt(System.getProperty("benchmark.copies", "10000"));
+	private static final int ITERATIONS = Integer.parseInt(System.getProperty("benchmark.iterations", "10000"));
+	// version 2 methods and a name that is not a method, like the names of scripts that every provider is asked about
+	private static final String [] METHODS = { "sort", "derive", "filter", "resolve", "limit", "abs", "floor", "unknownMethod" };
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static void main(String...args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("Usage: Benchmarks [pool|cache|scan|sort|methods|lambdas|closures]");
+			return;
+		}
+		for (String benchmark : args) {
+			if ("pool".equals(benchmark)) {
+				pool();
+			}
+			else if ("cache".equals(benchmark)) {
+				cache();
+			}
+			else if ("scan".equals(benchmark)) {
+				scan();
+			}
+			else if ("sort".equals(benchmark)) {
+				sort();
+			}
+			else if ("methods".equals(benchmark)) {
+				methods();
+			}
+			else if ("lambdas".equals(benchmark)) {
+				lambdas();
+			}
+			else if ("closures".equals(benchmark)) {
+				closures();
+			}
+			else {
+				System.err.println("Unknown benchmark: " + benchmark);
+			}
+		}
+	}
+
+	/**
+	 * Many small parallel resolves, they should all share the threads of the pool instead of starting new ones
+	 */
+	private static void pool() throws IOException, ParseException, URISyntaxException {
+		int threads = Thread.activeCount();
+		run("resolve", new HashMap<String, Object>());
+		System.out.println("Threads before: " + threads + ", after: " + Thread.activeCount() + ", pool threads: " + ParallelPool.getThreads() + ", tasks: " + ParallelPool.getSubmitted());
+	}
+
+	/**
+	 * Reads the descriptions of generated scripts by parsing them and from the description cache
+	 */
+	private static void cache() throws IOException {
+		if (ResourceFactory.getInstance().getResolver("file") == null) {
+			System.err.println("The cache benchmark needs a resolver for files on the classpath");
+			return;
+		}
+		File scripts = temporary(Files.createTempDirectory("glue-scripts").toFile());
+		File cacheDirectory = temporary(Files.createTempDirectory("glue-cache").toFile());
+		for (int i = 0; i < SCRIPTS; i++) {
+			generate(scripts, i);
+		}
+		ResourceContainer<?> root = (ResourceContainer<?>) ResourceFactory.getInstance().resolve(scripts.toURI(), null);
+		ScriptDescriptionCache cache = new ScriptDescriptionCache(cacheDirectory);
+		for (int i = 0; i < RUNS; i++) {
+			describe("parsed run " + (i + 1), root, null);
+			// the first run with the cache fills it
+			describe("cached run " + (i + 1), root, cache);
+		}
+		File [] files = cacheDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				temporary(file);
+			}
+		}
+	}
+
+	/**
+	 * Scans a tree of generated scripts and reads their descriptions, both sequentially and on the shared pool.
+	 * The pool uses every core by default, run it again with a lower -Dglue.parallel.threads to see how the scan scales with the amount of cores.
+	 */
+	private static void scan() throws IOException {
+		if (ResourceFactory.getInstance().getResolver("file") == null) {
+			System.err.println("The scan benchmark needs a resolver for files on the classpath");
+			return;
+		}
+		File tree = temporary(Files.createTempDirectory("glue-tree").toFile());
+		// folders of a hundred scripts, half of them in a nested folder so the scan has to recurse
+		for (int i = 0; i < TREE; i += 100) {
+			File folder = temporary(new File(tree, "folder" + (i / 100)));
+			File nested = temporary(new File(folder, "nested"));
+			nested.mkdirs();
+			for (int j = i; j < Math.min(TREE, i + 100); j++) {
+				generate(j % 2 == 0 ? folder : nested, j);
+			}
+		}
+		ResourceContainer<?> root = (ResourceContainer<?>) ResourceFactory.getInstance().resolve(tree.toURI(), null);
+		System.setProperty("glue.scan.preload", "true");
+		for (int i = 0; i < RUNS; i++) {
+			scan("sequential run " + (i + 1), root, false);
+			scan("parallel run " + (i + 1), root, true);
+		}
+	}
+
+	private static void scan(String name, ResourceContainer<?> root, boolean parallel) throws IOException {
+		// the repository picks up the setting when it is created
+		System.setProperty("glue.scan.parallel", Boolean.toString(parallel));
+		long started = System.nanoTime();
+		ScannableScriptRepository repository = new ScannableScriptRepository(null, root, new GlueParserProvider(), UTF8);
+		int scripts = 0;
+		for (Script script : repository) {
+			scripts++;
+		}
+		System.out.println(name + ": " + (System.nanoTime() - started) / 1000000 + "ms for " + scripts + " scripts on " + (parallel ? ParallelPool.getThreads() : 1) + " threads");
+	}
+
+	private static void generate(File directory, int index) throws IOException {
+		StringBuilder content = new StringBuilder();
+		content.append("# Generated script " + index + "\n");
+		content.append("first ?= null\nsecond ?= 1\nthird ?= \"third\"\n");
+		for (int j = 0; j < 50; j++) {
+			content.append("value" + j + " = second * " + j + " + first\n");
+		}
+		OutputStream output = new FileOutputStream(temporary(new File(directory, "script" + index + ".glue")));
+		try {
+			output.write(content.toString().getBytes(UTF8));
+		}
+		finally {
+			output.close();
+		}
+	}
+
+	private static void describe(String name, ResourceContainer<?> root, ScriptDescriptionCache cache) throws IOException {
+		long started = System.nanoTime();
+		// a new repository has new scripts that have not been parsed yet
+		ScannableScriptRepository repository = new ScannableScriptRepository(null, root, new GlueParserProvider(), UTF8);
+		int parameters = 0;
+		for (Script script : repository) {
+			parameters += new LazyScriptDescription(script, cache).getParameters().size();
+		}
+		System.out.println(name + ": " + (System.nanoTime() - started) / 1000000 + "ms for " + parameters + " parameters");
+	}
+
+	// files are removed in the reverse order they were registered, so directories have to be registered before their content
+	private static File temporary(File file) {
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Sorts a million records on a key, the time to create the records is measured separately
+	 */
+	private static void sort() throws IOException, ParseException, URISyntaxException {
+		Map<String, Object> input = new HashMap<String, Object>();
+		input.put("size", RECORDS);
+		run("records", input);
+		run("sortBy", input);
+		run("sortComparator", input);
+	}
+
+	/**
+	 * Resolves method names with a provider that remembers what they resolve to and with a new provider for every round, which has to search the classes again
+	 */
+	private static void methods() {
+		StaticJavaMethodProvider cached = newMethodProvider();
+		for (int i = 0; i < RUNS; i++) {
+			long started = System.nanoTime();
+			for (int j = 0; j < ITERATIONS; j++) {
+				for (String name : METHODS) {
+					cached.resolve(name);
+				}
+			}
+			System.out.println("cached run " + (i + 1) + ": " + (System.nanoTime() - started) / 1000000 + "ms for " + ITERATIONS * METHODS.length + " resolves");
+			started = System.nanoTime();
+			for (int j = 0; j < ITERATIONS; j++) {
+				StaticJavaMethodProvider uncached = newMethodProvider();
+				for (String name : METHODS) {
+					uncached.resolve(name);
+				}
+			}
+			System.out.println("uncached run " + (i + 1) + ": " + (System.nanoTime() - started) / 1000000 + "ms for " + ITERATIONS * METHODS.length + " resolves");
+		}
+	}
+
+	private static StaticJavaMethodProvider newMethodProvider() {
+		return new StaticJavaMethodProvider(SeriesMethods.class, MathMethods.class);
+	}
+
+	/**
+	 * Invokes a lambda a million times with positional parameters and through an operation that wraps every parameter in an operation of its own, which is how java code used to invoke lambdas
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static void lambdas() throws IOException, ParseException, URISyntaxException, EvaluationException {
+		ScriptRuntime runtime = new ScriptRuntime(getScript("invoke"), new SimpleExecutionEnvironment("LOCAL"), false, new HashMap<String, Object>());
+		runtime.run();
+		Lambda lambda = (Lambda) runtime.getExecutionContext().getPipeline().get("add");
+		ExecutionContext context = runtime.getExecutionContext();
+		runtime.registerInThread();
+		try {
+			for (int i = 0; i < RUNS; i++) {
+				long started = System.nanoTime();
+				for (int j = 0; j < LAMBDAS; j++) {
+					LambdaExecutionOperation.invoke(lambda, context, j, 1);
+				}
+				System.out.println("positional run " + (i + 1) + ": " + (System.nanoTime() - started) / 1000000 + "ms for " + LAMBDAS + " calls");
+				started = System.nanoTime();
+				for (int j = 0; j < LAMBDAS; j++) {
+					LambdaExecutionOperation operation = LambdaMethodProvider.newOperation(lambda);
+					operation.getParts().add(new QueryPart(Type.STRING, "anonymous"));
+					for (Object parameter : new Object[] { j, 1 }) {
+						NativeOperation argument = new NativeOperation();
+						argument.add(new QueryPart(Type.UNKNOWN, parameter));
+						operation.getParts().add(new QueryPart(Type.OPERATION, argument));
+					}
+					operation.evaluate(context);
+				}
+				System.out.println("operation run " + (i + 1) + ": " + (System.nanoTime() - started) / 1000000 + "ms for " + LAMBDAS + " calls");
+			}
+		}
+		finally {
+			runtime.unregisterInThread();
+		}
+	}
+
+	/**
+	 * Captures the enclosed context of a million lambdas over a pipeline of 500 variables, like a loop that creates a lambda in every iteration.
+	 * Copying the pipeline is timed as well, only the last copies are kept because keeping all of them does not fit in a regular heap.
+	 */
+	private static void closures() throws IOException, ParseException, URISyntaxException {
+		Map<String, Object> input = new HashMap<String, Object>();
+		for (int i = 0; i < 500; i++) {
+			input.put("variable" + i, i);
+		}
+		ScriptRuntime runtime = new ScriptRuntime(getScript("closures"), new SimpleExecutionEnvironment("LOCAL"), false, input);
+		runtime.run();
+		Map<String, Object> pipeline = runtime.getExecutionContext().getPipeline();
+		runtime.registerInThread();
+		try {
+			for (int i = 0; i < RUNS; i++) {
+				Object [] closures = new Object[LAMBDAS];
+				long memory = getUsedMemory();
+				long started = System.nanoTime();
+				for (int j = 0; j < LAMBDAS; j++) {
+					// the loop variable changes between the lambdas
+					pipeline.put("counter", j);
+					closures[j] = ClosureMap.capture(pipeline);
+				}
+				System.out.println("shared run " + (i + 1) + ": " + (System.nanoTime() - started) / 1000000 + "ms for " + LAMBDAS + " closures, " + (getUsedMemory() - memory) / LAMBDAS + " bytes per closure");
+				closures = new Object[Math.min(LAMBDAS, COPIES)];
+				memory = getUsedMemory();
+				started = System.nanoTime();
+				for (int j = 0; j < LAMBDAS; j++) {
+					pipeline.put("counter", j);
+					closures[j % closures.length] = new HashMap<String, Object>(pipeline);
+				}
+				System.out.println("copied run " + (i + 1) + ": " + (System.nanoTime() - started) / 1000000 + "ms for " + LAMBDAS + " closures, " + (getUsedMemory() - memory) / closures.length + " bytes per closure");
+			}
+		}
+		finally {
+			runtime.unregisterInThread();
+		}
+	}
+
+	private static long getUsedMemory() {
+		System.gc();
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+	private static Script getScript(String name) throws IOException, ParseException, URISyntaxException {
+		ScriptRepository repository = new TargetedScriptRepository(null, new URI("classpath:/benchmarks"), null, new GlueParserProvider(), UTF8, "glue");
+		return repository.getScript(name);
+	}
+
+	private static void run(String name, Map<String, Object> input) throws IOException, ParseException, URISyntaxException {
+		Script script = getScript(name);
+		for (int i = 0; i < RUNS; i++) {
+			ScriptRuntime runtime = new ScriptRuntime(script, new SimpleExecutionEnvironment("LOCAL"), false, new HashMap<String, Object>(input));
+			long started = System.nanoTime();
+			runtime.run();
+			System.out.println(name + " run " + (i + 1) + ": " + (System.nanoTime() - started) / 1000000 + "ms");
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.glue.core;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+import be.nabu.glue.api.Script;
+import be.nabu.glue.api.ScriptRepository;
+import be.nabu.glue.core.impl.EnvironmentLabelEvaluator;
+import be.nabu.glue.core.impl.parsers.GlueParserProvider;
+import be.nabu.glue.core.repositories.TargetedScriptRepository;
+import be.nabu.glue.impl.SimpleExecutionEnvironment;
+import be.nabu.glue.utils.ScriptRuntime;
+
+/**
+ * The scripts that need the version 2 methods, the versions are remembered once they are looked up so this runs in its own JVM
+ */
+public class TestVersion2Scripts extends TestCase {
+	public void test() throws IOException, ParseException, URISyntaxException {
+		// small series are already written to disk when sorting or removing duplicates
+		System.setProperty("glue.spill.threshold", "4");
+		ScriptRepository repository = new TargetedScriptRepository(null, new URI("classpath:/scripts"), null, new GlueParserProvider(), Charset.forName("UTF-8"), "glue");
+		Script script = repository.getScript("testVersion2");
+		ScriptRuntime runtime = new ScriptRuntime(
+			script,
+			new SimpleExecutionEnvironment("LOCAL"), 
+			false,
+			new HashMap<String, Object>()
+		);
+		runtime.run();
+		System.out.println(runtime.getExecutionContext());
+	}
+	
+	public void testLabels() throws IOException, ParseException, URISyntaxException {
+		ScriptRepository repository = new TargetedScriptRepository(null, new URI("classpath:/scripts"), null, new GlueParserProvider(), Charset.forName("UTF-8"), "glue");
+		Script script = repository.getScript("testLabels");
+		SimpleExecutionEnvironment environment = new SimpleExecutionEnvironment("LOCAL");
+		EnvironmentLabelEvaluator evaluator = new EnvironmentLabelEvaluator("stage");
+		environment.getParameters().put("stage", "test");
+		assertEquals("test", runLabels(script, environment, evaluator));
+		// the same script, environment and evaluator but the parameter the labels are checked against has changed
+		environment.getParameters().put("stage", "prod");
+		assertEquals("prod", runLabels(script, environment, evaluator));
+	}
+	
+	private static Object runLabels(Script script, SimpleExecutionEnvironment environment, EnvironmentLabelEvaluator evaluator) {
+		ScriptRuntime runtime = new ScriptRuntime(script, environment, false, new HashMap<String, Object>());
+		runtime.setLabelEvaluator(evaluator);
+		runtime.run();
+		return runtime.getExecutionContext().getPipeline().get("result");
+	}
+}